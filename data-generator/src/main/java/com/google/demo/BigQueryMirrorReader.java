@@ -0,0 +1,102 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo;
+
+import static com.google.demo.BigQueryService.toTableReference;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.FieldValueList;
+import com.google.cloud.bigquery.QueryJobConfiguration;
+import com.google.cloud.bigquery.QueryParameterValue;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.TableResult;
+import com.google.demo.bigquery.ConversionUtil;
+import com.google.demo.lag.MirrorReader;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Looks sessions up in the BigQuery tables for the <code>LagProbe</code>.
+ */
+class BigQueryMirrorReader implements MirrorReader {
+
+  private final BigQuery bigQuery;
+  private final TableId deltaTableId;
+  private final TableId mainTableId;
+
+  /**
+   * @param bigQuery all the operations will use this object to operate on BigQuery
+   * @param deltaTableId table the changes are streamed into
+   * @param mainTableId table the changes are merged into
+   */
+  BigQueryMirrorReader(BigQuery bigQuery, TableId deltaTableId, TableId mainTableId) {
+    this.bigQuery = bigQuery;
+    this.deltaTableId = deltaTableId;
+    this.mainTableId = mainTableId;
+  }
+
+  @Override
+  public Map<String, Long> readSequences(Stage stage, Collection<String> sessionIds) {
+    QueryJobConfiguration.Builder builder;
+    switch (stage) {
+      case STREAM:
+        // Probed changes are recent: only the streaming buffer and the last partitions are read
+        Instant fromPartition = Instant.now().truncatedTo(ChronoUnit.DAYS)
+            .minus(1, ChronoUnit.DAYS);
+        builder = QueryJobConfiguration.newBuilder(
+            "SELECT session_id, MAX(di_sequence_number) AS sequence FROM "
+                + toTableReference(deltaTableId)
+                + " WHERE (_PARTITIONTIME IS NULL OR _PARTITIONTIME >= @from_partition)"
+                + " AND session_id IN UNNEST(@session_ids)"
+                + " GROUP BY session_id")
+            .addNamedParameter("from_partition",
+                QueryParameterValue.timestamp(ConversionUtil.convertToMicros(fromPartition)));
+        break;
+      case MERGE:
+        builder = QueryJobConfiguration.newBuilder(
+            "SELECT session_id, last_di_sequence_number AS sequence FROM "
+                + toTableReference(mainTableId)
+                + " WHERE session_id IN UNNEST(@session_ids)");
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown stage " + stage);
+    }
+
+    QueryJobConfiguration queryConfig = builder
+        .addNamedParameter("session_ids",
+            QueryParameterValue.array(sessionIds.toArray(new String[0]), String.class))
+        .setUseQueryCache(false)
+        .build();
+
+    Map<String, Long> result = new HashMap<>();
+    try {
+      TableResult tableResult = bigQuery.query(queryConfig);
+      for (FieldValueList row : tableResult.iterateAll()) {
+        result.put(row.get("session_id").getStringValue(), row.get("sequence").getLongValue());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      // An empty result would look like none of the sessions is visible yet. This is an
+      // acceptable approach for a demo program.
+      throw new RuntimeException("Interrupted while looking the sessions up", e);
+    }
+    return result;
+  }
+}
@@ -16,16 +16,26 @@
 
 package com.google.demo;
 
+import static com.google.demo.Constants.CUSTOMER_KEY_COLUMN;
+import static com.google.demo.Constants.DI_GENERATED_COLUMN;
+import static com.google.demo.Constants.DI_OPERATION_COLUMN;
+import static com.google.demo.Constants.DI_SEQUENCE_COLUMN;
+import static com.google.demo.Constants.END_COLUMN;
+import static com.google.demo.Constants.SESSION_ID_COLUMN;
+import static com.google.demo.Constants.START_COLUMN;
+import static com.google.demo.Constants.STATUS_COLUMN;
+
 import com.google.cloud.bigquery.BigQuery;
 import com.google.cloud.bigquery.InsertAllRequest;
-import com.google.cloud.bigquery.InsertAllRequest.Builder;
 import com.google.cloud.bigquery.InsertAllResponse;
 import com.google.cloud.bigquery.QueryJobConfiguration;
 import com.google.cloud.bigquery.TableId;
+import com.google.demo.bigquery.ConversionUtil;
 import com.google.demo.bigquery.Struct;
 import com.google.demo.model.Session;
+import com.google.demo.model.SessionBatch;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 /**
@@ -35,17 +45,7 @@ class BigQueryService {
 
   private static final Logger log = Logger.getLogger(BigQueryService.class.getName());
 
-  private static final String DI_SEQUENCE_COLUMN = "di_sequence_number";
-  private static final String DI_OPERATION_COLUMN = "di_operation_type";
-
-  // Operation types
-  private static final String INSERT_OP = "I";
-  private static final String UPDATE_OP = "U";
-  private static final String DELETE_OP = "D";
-
   private final BigQuery bigQuery;
-  // Technically doesn't need to be atomic (the demo generator doesn't use concurrency at the moment)
-  private final AtomicInteger insertSequence = new AtomicInteger();
 
   /**
    * @param bigQuery all the operations will use this object to operate on BigQuery
@@ -55,38 +55,54 @@ class BigQueryService {
   }
 
   /**
-   * Adds a row to indicate an INSERT in the source table.
+   * Streams the changes of the batch into the table.
+   *
+   * @param tableId table to insert into
+   * @param batch changes to insert
    */
-  void addInsertRow(InsertAllRequest.Builder requestBuilder, Map<String, Object> row) {
-    addRowWithOperation(requestBuilder, row, INSERT_OP);
+  void insertBatch(TableId tableId, SessionBatch batch) {
+    runInsertAll(createInsertRequest(tableId, batch));
   }
 
   /**
-   * Adds a row to indicate an UPDATE in the source table.
+   * The request builder keeps the rows in a list which can't be presized or reused, and every
+   * row is copied into a map of its own by <code>RowToInsert</code>. The map the values are
+   * collected in is therefore shared by all the rows of the batch.
+   *
+   * @param tableId table to insert into
+   * @param batch changes to insert
+   * @return streaming insert request of the changes
    */
-  void addUpdateRow(InsertAllRequest.Builder requestBuilder, Map<String, Object> row) {
-    addRowWithOperation(requestBuilder, row, UPDATE_OP);
+  InsertAllRequest createInsertRequest(TableId tableId, SessionBatch batch) {
+    InsertAllRequest.Builder requestBuilder = InsertAllRequest.newBuilder(tableId);
+    // The default capacity holds all the columns without resizing
+    Map<String, Object> row = new HashMap<>();
+    for (int i = 0; i < batch.size(); i++) {
+      putBigQueryRow(batch, i, row);
+      requestBuilder.addRow(row);
+    }
+    return requestBuilder.build();
   }
 
   /**
-   * Adds a row to indicate a DELETE in the source table.
+   * Puts all the columns of the change at the index of the batch into the row, replacing the
+   * values of the previous change.
    */
-  void addDeleteRow(InsertAllRequest.Builder requestBuilder, Map<String, Object> row) {
-    addRowWithOperation(requestBuilder, row, DELETE_OP);
+  static void putBigQueryRow(SessionBatch batch, int index, Map<String, Object> row) {
+    row.put(SESSION_ID_COLUMN, batch.getSessionId(index));
+    row.put(STATUS_COLUMN, batch.getStatus(index).name());
+    row.put(CUSTOMER_KEY_COLUMN, batch.getCustomerKey(index));
+    row.put(START_COLUMN, batch.getStartTimestamp(index));
+    row.put(END_COLUMN, batch.getEndTimestamp(index));
+    row.put(DI_OPERATION_COLUMN, batch.getOperation(index));
+    row.put(DI_SEQUENCE_COLUMN, batch.getSequence(index));
+    row.put(DI_GENERATED_COLUMN, toTimestamp(batch.getGeneratedMicros(index)));
   }
 
-  /**
-   * Helper function to add a row.
-   */
-  private void addRowWithOperation(Builder requestBuilder, Map<String, Object> row,
-      String operation) {
-    row.put(DI_OPERATION_COLUMN, operation);
-    row.put(DI_SEQUENCE_COLUMN, insertSequence.incrementAndGet());
-
-    requestBuilder.addRow(row);
+  private static String toTimestamp(long micros) {
+    return micros == SessionBatch.NO_TIMESTAMP ? null : ConversionUtil.convertToTimestamp(micros);
   }
 
-
   /**
    * Populate BigQuery table with session data.
    *
@@ -100,9 +116,8 @@ class BigQueryService {
       log.info("Inserting next batch of " + nextBatchSize + " records.");
 
       StringBuilder queryBuilder = new StringBuilder();
-      queryBuilder.append("INSERT INTO `").append(tableId.getProject()).append('.')
-          .append(tableId.getDataset()).append(".").append(tableId.getTable())
-          .append("` SELECT * FROM UNNEST([");
+      queryBuilder.append("INSERT INTO ").append(toTableReference(tableId))
+          .append(" SELECT * FROM UNNEST([");
       for (int i = 0; i < nextBatchSize; i++) {
         Session session = new Session();
         Struct struct = session.toBigQueryStruct();
@@ -127,10 +142,9 @@ class BigQueryService {
   /**
    * Process the streaming inserts.
    *
-   * @param insertRequestBuilder to run
+   * @param insertRequest to run
    */
-  void runInsertAll(Builder insertRequestBuilder) {
-    InsertAllRequest insertRequest = insertRequestBuilder.build();
+  void runInsertAll(InsertAllRequest insertRequest) {
     InsertAllResponse insertResponse = bigQuery.insertAll(insertRequest);
     if (insertResponse.hasErrors()) {
       // This is an acceptable approach for a demo program
@@ -140,4 +154,12 @@ class BigQueryService {
       log.info("Inserted next batch of " + insertRequest.getRows().size() + " row(s).");
     }
   }
+
+  /**
+   * @return fully qualified, quoted table name to use in queries
+   */
+  static String toTableReference(TableId tableId) {
+    return "`" + tableId.getProject() + "." + tableId.getDataset() + "." + tableId.getTable()
+        + "`";
+  }
 }
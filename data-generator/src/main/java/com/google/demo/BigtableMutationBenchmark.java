@@ -0,0 +1,230 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo;
+
+import static com.google.demo.CommandLineUtil.getIntParameter;
+import static com.google.demo.Constants.INSERT_OP;
+import static com.google.demo.Constants.UPDATE_OP;
+
+import com.google.cloud.bigtable.data.v2.BigtableDataClient;
+import com.google.cloud.bigtable.data.v2.BigtableDataSettings;
+import com.google.cloud.bigtable.data.v2.models.BulkMutation;
+import com.google.cloud.bigtable.data.v2.models.Mutation;
+import com.google.demo.bigtable.CellEncoding;
+import com.google.demo.bigtable.RowKeyStrategy;
+import com.google.demo.model.Session;
+import com.google.demo.model.Session.Status;
+import com.google.demo.model.SessionBatch;
+import com.google.protobuf.ByteString;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Measures the size of the Bigtable mutations produced by every combination of row key strategy
+ * and cell encoding and, optionally, the write throughput against the Bigtable emulator.
+ *
+ * The emulator needs the "session" table with the "main" column family, e.g.
+ * <code>cbt -project emulator -instance bq-sync-instance createtable session families=main</code>
+ */
+class BigtableMutationBenchmark {
+
+  private static final String BATCHES = "batches";
+  private static final String INSERTS_PER_BATCH = "inserts_per_batch";
+  private static final String UPDATE_PERCENT = "update_percent";
+  private static final String EMULATOR_PORT = "emulator_port";
+
+  private static final String EMULATOR_PROJECT_ID = "emulator";
+  // Entry below must match the name defined in Terraform's variables.tf
+  private static final String BIGTABLE_INSTANCE_ID = "bq-sync-instance";
+
+  private static class Parameters {
+
+    int batches;
+    int insertsPerBatch;
+    int percentOfUpdatesPerBatch;
+    int emulatorPort;
+  }
+
+  /**
+   * Main function of the benchmark.
+   *
+   * @param args benchmark arguments
+   * @throws IOException
+   */
+  public static void main(String[] args) throws IOException {
+    Parameters params = getParameters(args);
+
+    BigtableDataClient client = params.emulatorPort > 0
+        ? BigtableDataClient.create(BigtableDataSettings.newBuilderForEmulator(params.emulatorPort)
+        .setProjectId(EMULATOR_PROJECT_ID)
+        .setInstanceId(BIGTABLE_INSTANCE_ID)
+        .build())
+        : null;
+
+    System.out.println(String.format("%-20s %-8s %12s %14s %16s",
+        "row_key_strategy", "encoding", "mutations", "bytes/mutation", "mutations/sec"));
+
+    for (RowKeyStrategy rowKeyStrategy : RowKeyStrategy.values()) {
+      for (CellEncoding cellEncoding : CellEncoding.values()) {
+        run(new BigtableService(client, rowKeyStrategy, cellEncoding), params,
+            rowKeyStrategy, cellEncoding);
+      }
+    }
+
+    if (client != null) {
+      client.close();
+    }
+  }
+
+  /**
+   * Runs the generator's insert and update pattern and prints the results.
+   */
+  private static void run(BigtableService bigtableService, Parameters params,
+      RowKeyStrategy rowKeyStrategy, CellEncoding cellEncoding) {
+    // Same seed for all the combinations to produce the same sequence of changes
+    Random random = new Random(0);
+    List<Session> previousRecords = new ArrayList<>();
+    SessionBatch changes = new SessionBatch(params.insertsPerBatch);
+    long sequence = 0;
+    long mutationCount = 0;
+    long mutationBytes = 0;
+    long elapsedNanos = 0;
+
+    for (int batch = 0; batch < params.batches; batch++) {
+      long startTime = System.nanoTime();
+      changes.clear();
+
+      int updateCount = params.insertsPerBatch * params.percentOfUpdatesPerBatch / 100;
+      for (int i = 0; i < updateCount && !previousRecords.isEmpty(); i++) {
+        Session session = previousRecords.remove(random.nextInt(previousRecords.size()));
+        if (session.getStatus() == Status.NEW) {
+          session.loggedIn("customer" + i);
+          previousRecords.add(session);
+        } else {
+          session.logout();
+        }
+        changes.add(session, UPDATE_OP, ++sequence, 0);
+      }
+      for (int i = 0; i < params.insertsPerBatch; i++) {
+        Session session = new Session();
+        previousRecords.add(session);
+        changes.add(session, INSERT_OP, ++sequence, 0);
+      }
+
+      BulkMutation bulkMutation = bigtableService.createBulkMutationForSession();
+      bigtableService.addBatch(bulkMutation, changes);
+      if (params.emulatorPort > 0) {
+        bigtableService.bulkUpdate(bulkMutation);
+      }
+      changes.markPersisted();
+      elapsedNanos += System.nanoTime() - startTime;
+
+      // The sizes are measured outside of the timed section, which encodes every row only once
+      for (int i = 0; i < changes.size(); i++) {
+        Mutation mutation = bigtableService.createMutation(changes, i);
+        if (mutation == null) {
+          continue;
+        }
+        ByteString rowKey = bigtableService.createRowKey(changes, i);
+        mutationBytes += rowKey.size();
+        for (com.google.bigtable.v2.Mutation entry : mutation.getMutations()) {
+          mutationBytes += entry.getSerializedSize();
+        }
+        mutationCount++;
+      }
+    }
+    double seconds = elapsedNanos / 1e9;
+
+    System.out.println(String.format("%-20s %-8s %12d %14.1f %16s",
+        rowKeyStrategy.name().toLowerCase(), cellEncoding.name().toLowerCase(), mutationCount,
+        (double) mutationBytes / mutationCount,
+        params.emulatorPort > 0 ? String.format("%.0f", mutationCount / seconds) : "-"));
+  }
+
+  /**
+   * Extract and validate command line parameters.
+   *
+   * @param args
+   * @return parameters object with strongly typed parameters, exits if validation failed.
+   */
+  private static Parameters getParameters(String[] args) {
+    Options commandLineOptions = createCommandLineOptions();
+
+    Parameters result = new Parameters();
+    try {
+      CommandLine cmd = (new DefaultParser()).parse(commandLineOptions, args);
+      result.batches = getIntParameter(cmd, BATCHES, 20);
+      result.insertsPerBatch = getIntParameter(cmd, INSERTS_PER_BATCH, 500);
+      result.percentOfUpdatesPerBatch = getIntParameter(cmd, UPDATE_PERCENT, 20);
+      result.emulatorPort = getIntParameter(cmd, EMULATOR_PORT, 0);
+
+      return result;
+    } catch (ParseException e) {
+      new HelpFormatter().printHelp(
+          "java -cp target/data-generator-1.0-SNAPSHOT-shaded.jar "
+              + BigtableMutationBenchmark.class.getName(), commandLineOptions);
+      e.printStackTrace();
+      System.exit(-1);
+      return null;
+    }
+  }
+
+  /**
+   * @return available command line options
+   */
+  private static Options createCommandLineOptions() {
+    Options options = new Options();
+
+    options.addOption(
+        Option.builder().longOpt(BATCHES)
+            .desc("Number of batches per combination")
+            .hasArg()
+            .type(Number.class)
+            .argName("number").build());
+
+    options.addOption(
+        Option.builder().longOpt(INSERTS_PER_BATCH)
+            .desc("Number of inserts per batch")
+            .hasArg()
+            .type(Number.class)
+            .argName("number").build());
+
+    options.addOption(
+        Option.builder().longOpt(UPDATE_PERCENT)
+            .desc("Percentage of updates relative to inserts")
+            .hasArg()
+            .type(Number.class)
+            .argName("number").build());
+
+    options.addOption(
+        Option.builder().longOpt(EMULATOR_PORT)
+            .desc("Write the mutations to the Bigtable emulator listening on this port")
+            .hasArg()
+            .type(Number.class)
+            .argName("port").build());
+
+    return options;
+  }
+}
@@ -25,22 +25,46 @@ import static com.google.demo.Constants.MAIN_FAMILY;
 import com.google.cloud.bigtable.data.v2.BigtableDataClient;
 import com.google.cloud.bigtable.data.v2.models.BulkMutation;
 import com.google.cloud.bigtable.data.v2.models.Mutation;
-import com.google.demo.bigquery.ConversionUtil;
+import com.google.demo.bigtable.CellEncoding;
+import com.google.demo.bigtable.RowKeyStrategy;
 import com.google.demo.model.Session;
+import com.google.demo.model.SessionBatch;
+import com.google.protobuf.ByteString;
 
 /**
  * Bigtable services
  */
 class BigtableService {
 
+  private static final ByteString STATUS_QUALIFIER = ByteString.copyFromUtf8(STATUS_COLUMN);
+  private static final ByteString CUSTOMER_KEY_QUALIFIER =
+      ByteString.copyFromUtf8(CUSTOMER_KEY_COLUMN);
+  private static final ByteString START_QUALIFIER = ByteString.copyFromUtf8(START_COLUMN);
+  private static final ByteString END_QUALIFIER = ByteString.copyFromUtf8(END_COLUMN);
+
   private final BigtableDataClient bigtableClient;
+  private final RowKeyStrategy rowKeyStrategy;
+  private final CellEncoding cellEncoding;
 
   /**
-   * Constructs the service.
+   * Constructs the service which uses session ids as row keys and text cell values.
    * @param bigtableDataClient will be used to perform the operations.
    */
   BigtableService(BigtableDataClient bigtableDataClient) {
+    this(bigtableDataClient, RowKeyStrategy.STRING, CellEncoding.TEXT);
+  }
+
+  /**
+   * Constructs the service.
+   * @param bigtableDataClient will be used to perform the operations.
+   * @param rowKeyStrategy how to build the row keys
+   * @param cellEncoding how to encode the cell values
+   */
+  BigtableService(BigtableDataClient bigtableDataClient, RowKeyStrategy rowKeyStrategy,
+      CellEncoding cellEncoding) {
     this.bigtableClient = bigtableDataClient;
+    this.rowKeyStrategy = rowKeyStrategy;
+    this.cellEncoding = cellEncoding;
   }
 
   /**
@@ -51,48 +75,64 @@ class BigtableService {
   }
 
   /**
-   * Adds mutations required to persist Session object to Bigtable
+   * Adds mutations required to persist the changes of the batch to Bigtable. Only the cells
+   * which changed since the session was last persisted are written.
    *
    * @param bulkMutation batch container
-   * @param session to persist
+   * @param batch changes to persist
    */
-  void addOrUpdateSession(BulkMutation bulkMutation, Session session) {
-    Mutation mutation = Mutation.create();
-    setNonNullCell(mutation, MAIN_FAMILY, STATUS_COLUMN, session.getStatus().name());
-    setNonNullCell(mutation, MAIN_FAMILY, CUSTOMER_KEY_COLUMN, session.getCustomerKey());
-    setNonNullCell(mutation, MAIN_FAMILY, START_COLUMN,
-        ConversionUtil.convertToTimestamp(session.getStart()));
-    setNonNullCell(mutation, MAIN_FAMILY, END_COLUMN,
-        ConversionUtil.convertToTimestamp(session.getEnd()));
-
-    bulkMutation.add(session.getSessionId(), mutation);
+  void addBatch(BulkMutation bulkMutation, SessionBatch batch) {
+    for (int i = 0; i < batch.size(); i++) {
+      Mutation mutation = createMutation(batch, i);
+      if (mutation != null) {
+        bulkMutation.add(createRowKey(batch, i), mutation);
+      }
+    }
   }
 
   /**
-   * Helper function to set up a cell on a mutation.
-   * If the <code>value</code> is NULL the cell is not set.
-   *
-   * @param mutation to update
-   * @param familyName cell's family name
-   * @param columnName cell's column name
-   * @param value to set
+   * @return row key of the session changed at the index of the batch
    */
-  private static void setNonNullCell(Mutation mutation, String familyName,
-      String columnName, String value) {
-    if (value == null) {
-      return;
-    }
-    mutation.setCell(familyName, columnName, value);
+  ByteString createRowKey(SessionBatch batch, int index) {
+    return rowKeyStrategy.rowKey(batch.getSessionId(index), batch.getStartMicros(index));
   }
 
   /**
-   * Helper function to delete a row corresponding to the session.
-   *
-   * @param bulkMutation to add to
-   * @param session to delete
+   * @return mutation deleting the row or setting the cells of the fields changed at the index of
+   * the batch, null if no field changed - Bigtable rejects entries without mutations
    */
-  public void deleteSession(BulkMutation bulkMutation, Session session) {
-    bulkMutation.add(session.getSessionId(), Mutation.create().deleteRow());
+  Mutation createMutation(SessionBatch batch, int index) {
+    if (batch.isDelete(index)) {
+      return Mutation.create().deleteRow();
+    }
+    int changedFields = batch.getChangedFields(index);
+    if (changedFields == 0) {
+      return null;
+    }
+    Mutation mutation = Mutation.create();
+    if ((changedFields & Session.STATUS_FIELD) != 0) {
+      mutation.setCell(MAIN_FAMILY, STATUS_QUALIFIER,
+          cellEncoding.encodeStatus(batch.getStatus(index)));
+    }
+    if ((changedFields & Session.CUSTOMER_KEY_FIELD) != 0
+        && batch.getCustomerKey(index) != null) {
+      mutation.setCell(MAIN_FAMILY, CUSTOMER_KEY_QUALIFIER,
+          cellEncoding.encodeString(batch.getCustomerKey(index)));
+    }
+    if ((changedFields & Session.START_FIELD) != 0
+        && batch.getStartMicros(index) != SessionBatch.NO_TIMESTAMP) {
+      mutation.setCell(MAIN_FAMILY, START_QUALIFIER, cellEncoding == CellEncoding.TEXT
+          // Same text as the BigQuery row, formatted once by the batch
+          ? cellEncoding.encodeString(batch.getStartTimestamp(index))
+          : cellEncoding.encodeTimestamp(batch.getStartMicros(index)));
+    }
+    if ((changedFields & Session.END_FIELD) != 0
+        && batch.getEndMicros(index) != SessionBatch.NO_TIMESTAMP) {
+      mutation.setCell(MAIN_FAMILY, END_QUALIFIER, cellEncoding == CellEncoding.TEXT
+          ? cellEncoding.encodeString(batch.getEndTimestamp(index))
+          : cellEncoding.encodeTimestamp(batch.getEndMicros(index)));
+    }
+    return mutation;
   }
 
   /**
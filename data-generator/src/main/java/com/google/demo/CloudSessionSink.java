@@ -0,0 +1,52 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo;
+
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigtable.data.v2.models.BulkMutation;
+import com.google.demo.model.SessionBatch;
+
+/**
+ * Writes the changes to the Bigtable "session" table and streams them into BigQuery's
+ * "session_delta".
+ */
+class CloudSessionSink implements SessionSink {
+
+  private final BigtableService bigtableService;
+  private final BigQueryService bigQueryService;
+  private final TableId deltaTableId;
+
+  /**
+   * @param bigtableService writes the sessions
+   * @param bigQueryService streams the change events
+   * @param deltaTableId table the change events are streamed into
+   */
+  CloudSessionSink(BigtableService bigtableService, BigQueryService bigQueryService,
+      TableId deltaTableId) {
+    this.bigtableService = bigtableService;
+    this.bigQueryService = bigQueryService;
+    this.deltaTableId = deltaTableId;
+  }
+
+  @Override
+  public void write(SessionBatch batch) {
+    BulkMutation bulkMutation = bigtableService.createBulkMutationForSession();
+    bigtableService.addBatch(bulkMutation, batch);
+    bigtableService.bulkUpdate(bulkMutation);
+    bigQueryService.insertBatch(deltaTableId, batch);
+  }
+}
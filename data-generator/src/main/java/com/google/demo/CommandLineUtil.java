@@ -0,0 +1,44 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Command line helpers shared by the executables of the demo.
+ */
+public class CommandLineUtil {
+
+  /**
+   * Helper function to extract an integer parameter
+   *
+   * @param cmd
+   * @param optionName
+   * @param defaultValue
+   * @return
+   * @throws ParseException
+   */
+  public static int getIntParameter(CommandLine cmd, String optionName, int defaultValue)
+      throws ParseException {
+    if (cmd.getOptionValue(optionName) == null) {
+      return defaultValue;
+    }
+    return ((Number) (cmd.getParsedOptionValue(optionName)))
+        .intValue();
+  }
+}
@@ -22,5 +22,15 @@ public class Constants {
   public static final String END_COLUMN = "end_ts";
   public static final String CUSTOMER_KEY_COLUMN = "customer_key";
   public static final String STATUS_COLUMN = "status";
+  public static final String DI_SEQUENCE_COLUMN = "di_sequence_number";
+  public static final String DI_OPERATION_COLUMN = "di_operation_type";
+  public static final String DI_GENERATED_COLUMN = "di_generated_ts";
+  public static final String LAST_DI_SEQUENCE_COLUMN = "last_di_sequence_number";
+
+  // Operation types
+  public static final String INSERT_OP = "I";
+  public static final String UPDATE_OP = "U";
+  public static final String DELETE_OP = "D";
+
   static final String MAIN_FAMILY = "main";
 }
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo;
+
+import static com.google.demo.BigQueryService.toTableReference;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.FieldValueList;
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobInfo;
+import com.google.cloud.bigquery.JobStatistics.QueryStatistics;
+import com.google.cloud.bigquery.QueryJobConfiguration;
+import com.google.cloud.bigquery.QueryParameterValue;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.TableResult;
+import com.google.demo.bigquery.ConversionUtil;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Removes and compacts partitions of the "session_delta" table.
+ *
+ * Partitions are selected using only metadata: the start time of the last successful MERGE into
+ * "session_main" (the merge high-water mark) and the partition list of the delta table. A
+ * partition that was last modified before the last merge started has been fully merged and can
+ * be dropped without looking at its rows.
+ */
+class DeltaCompactionService {
+
+  private static final Logger log = Logger.getLogger(DeltaCompactionService.class.getName());
+
+  // Pseudo partitions of ingestion-time partitioned tables which can't be deleted
+  private static final String STREAMING_BUFFER_PARTITION = "__NULL__";
+  private static final String UNPARTITIONED_PARTITION = "__UNPARTITIONED__";
+
+  /**
+   * Metadata of a single delta table partition.
+   */
+  static class Partition {
+
+    final String partitionId;
+    final long totalRows;
+    final Instant lastModified;
+
+    Partition(String partitionId, long totalRows, Instant lastModified) {
+      this.partitionId = partitionId;
+      this.totalRows = totalRows;
+      this.lastModified = lastModified;
+    }
+
+    @Override
+    public String toString() {
+      return partitionId + " (" + totalRows + " rows, last modified " + lastModified + ")";
+    }
+  }
+
+  /**
+   * Cost of the successful MERGE jobs into the main table which started within a time range.
+   */
+  static class MergeJobs {
+
+    final int count;
+    final long bytesProcessed;
+    final long millis;
+
+    MergeJobs(int count, long bytesProcessed, long millis) {
+      this.count = count;
+      this.bytesProcessed = bytesProcessed;
+      this.millis = millis;
+    }
+  }
+
+  private final BigQuery bigQuery;
+  private final TableId deltaTableId;
+  private final TableId mainTableId;
+  private final String region;
+
+  /**
+   * @param bigQuery all the operations will use this object to operate on BigQuery
+   * @param deltaTableId table to compact
+   * @param mainTableId table the delta is merged into
+   * @param region location of the dataset, e.g. "us"; used to look up merge jobs
+   */
+  DeltaCompactionService(BigQuery bigQuery, TableId deltaTableId, TableId mainTableId,
+      String region) {
+    this.bigQuery = bigQuery;
+    this.deltaTableId = deltaTableId;
+    this.mainTableId = mainTableId;
+    this.region = region;
+  }
+
+  /**
+   * @return start time of the most recent successful MERGE into the main table, or
+   * <code>null</code> if there was no merge in the job history.
+   */
+  Instant getMergeHighWaterMark() throws InterruptedException {
+    String query = "SELECT UNIX_MICROS(MAX(start_time)) AS high_water_mark"
+        + " FROM `region-" + region + "`.INFORMATION_SCHEMA.JOBS_BY_PROJECT"
+        + " WHERE statement_type = 'MERGE' AND state = 'DONE' AND error_result IS NULL"
+        + " AND destination_table.project_id = @project"
+        + " AND destination_table.dataset_id = @dataset"
+        + " AND destination_table.table_id = @table"
+        + " AND creation_time > TIMESTAMP_SUB(CURRENT_TIMESTAMP(), INTERVAL 180 DAY)";
+
+    TableResult result = bigQuery.query(QueryJobConfiguration.newBuilder(query)
+        .addNamedParameter("project", QueryParameterValue.string(mainTableId.getProject()))
+        .addNamedParameter("dataset", QueryParameterValue.string(mainTableId.getDataset()))
+        .addNamedParameter("table", QueryParameterValue.string(mainTableId.getTable()))
+        .build());
+
+    for (FieldValueList row : result.iterateAll()) {
+      if (!row.get("high_water_mark").isNull()) {
+        return ConversionUtil.convertToInstant(row.get("high_water_mark").getLongValue());
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Reads the job history, which can take a few seconds to include the most recent jobs.
+   *
+   * @param from start of the range, inclusive
+   * @param to end of the range, exclusive
+   * @return number, bytes processed and total duration of the successful MERGE jobs into the main
+   * table which started within the range
+   */
+  MergeJobs getMergeJobs(Instant from, Instant to) throws InterruptedException {
+    String query = "SELECT COUNT(*) AS merges,"
+        + " IFNULL(SUM(total_bytes_processed), 0) AS bytes_processed,"
+        + " IFNULL(SUM(TIMESTAMP_DIFF(end_time, start_time, MILLISECOND)), 0) AS merge_ms"
+        + " FROM `region-" + region + "`.INFORMATION_SCHEMA.JOBS_BY_PROJECT"
+        + " WHERE statement_type = 'MERGE' AND state = 'DONE' AND error_result IS NULL"
+        + " AND destination_table.project_id = @project"
+        + " AND destination_table.dataset_id = @dataset"
+        + " AND destination_table.table_id = @table"
+        + " AND start_time >= @from AND start_time < @to"
+        // Jobs are created before they start, possibly long before when they are queued
+        + " AND creation_time > TIMESTAMP_SUB(@from, INTERVAL 1 DAY) AND creation_time < @to";
+
+    TableResult result = bigQuery.query(QueryJobConfiguration.newBuilder(query)
+        .addNamedParameter("project", QueryParameterValue.string(mainTableId.getProject()))
+        .addNamedParameter("dataset", QueryParameterValue.string(mainTableId.getDataset()))
+        .addNamedParameter("table", QueryParameterValue.string(mainTableId.getTable()))
+        .addNamedParameter("from",
+            QueryParameterValue.timestamp(ConversionUtil.convertToMicros(from)))
+        .addNamedParameter("to",
+            QueryParameterValue.timestamp(ConversionUtil.convertToMicros(to)))
+        .build());
+
+    for (FieldValueList row : result.iterateAll()) {
+      return new MergeJobs((int) row.get("merges").getLongValue(),
+          row.get("bytes_processed").getLongValue(), row.get("merge_ms").getLongValue());
+    }
+    return new MergeJobs(0, 0, 0);
+  }
+
+  /**
+   * @return all the data partitions of the delta table, oldest first.
+   */
+  List<Partition> listPartitions() throws InterruptedException {
+    String query = "SELECT partition_id, total_rows,"
+        + " UNIX_MICROS(last_modified_time) AS last_modified"
+        + " FROM `" + deltaTableId.getProject() + "." + deltaTableId.getDataset()
+        + "`.INFORMATION_SCHEMA.PARTITIONS"
+        + " WHERE table_name = @table AND partition_id NOT IN (@streaming, @unpartitioned)"
+        + " ORDER BY partition_id";
+
+    TableResult result = bigQuery.query(QueryJobConfiguration.newBuilder(query)
+        .addNamedParameter("table", QueryParameterValue.string(deltaTableId.getTable()))
+        .addNamedParameter("streaming", QueryParameterValue.string(STREAMING_BUFFER_PARTITION))
+        .addNamedParameter("unpartitioned", QueryParameterValue.string(UNPARTITIONED_PARTITION))
+        .build());
+
+    List<Partition> partitions = new ArrayList<>();
+    for (FieldValueList row : result.iterateAll()) {
+      partitions.add(new Partition(row.get("partition_id").getStringValue(),
+          row.get("total_rows").getLongValue(),
+          ConversionUtil.convertToInstant(row.get("last_modified").getLongValue())));
+    }
+    return partitions;
+  }
+
+  /**
+   * Selects partitions which were completely processed by the merge.
+   *
+   * The most recent partition is never selected - it is the one the streaming buffer is
+   * flushed into.
+   *
+   * @param partitions ordered oldest first
+   * @param highWaterMark start time of the last successful merge; nothing is selected if null
+   * @return partitions safe to delete
+   */
+  static List<Partition> selectPartitionsToDelete(List<Partition> partitions,
+      Instant highWaterMark) {
+    List<Partition> result = new ArrayList<>();
+    if (highWaterMark == null) {
+      return result;
+    }
+    for (int i = 0; i < partitions.size() - 1; i++) {
+      Partition partition = partitions.get(i);
+      if (partition.lastModified.isBefore(highWaterMark)) {
+        result.add(partition);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Selects partitions which are worth compacting.
+   *
+   * The most recent partition is never selected - the streaming buffer is still flushed into it.
+   *
+   * @param partitions all the partitions of the table, ordered oldest first
+   * @param partitionsToDelete partitions which will be removed anyway
+   * @param minRows smallest partition to compact
+   * @return partitions to compact
+   */
+  static List<Partition> selectPartitionsToCompact(List<Partition> partitions,
+      List<Partition> partitionsToDelete, long minRows) {
+    List<Partition> result = new ArrayList<>();
+    for (int i = 0; i < partitions.size() - 1; i++) {
+      Partition partition = partitions.get(i);
+      if (partition.totalRows >= minRows && !partitionsToDelete.contains(partition)) {
+        result.add(partition);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Deletes the partitions using several concurrent requests.
+   *
+   * @param partitions to delete
+   * @param parallelism maximum number of concurrent requests
+   * @return number of partitions deleted
+   */
+  int deletePartitions(List<Partition> partitions, int parallelism)
+      throws InterruptedException {
+    if (partitions.isEmpty()) {
+      return 0;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+    try {
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (Partition partition : partitions) {
+        TableId partitionTableId = TableId.of(deltaTableId.getProject(),
+            deltaTableId.getDataset(), deltaTableId.getTable() + "$" + partition.partitionId);
+        results.add(executor.submit(() -> {
+          log.info("Deleting partition " + partition);
+          return bigQuery.delete(partitionTableId);
+        }));
+      }
+
+      int deleted = 0;
+      for (Future<Boolean> result : results) {
+        try {
+          if (result.get()) {
+            deleted++;
+          }
+        } catch (ExecutionException e) {
+          // This is an acceptable approach for a demo program
+          throw new RuntimeException("Failed to delete a partition", e.getCause());
+        }
+      }
+      return deleted;
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Removes all but the latest row of every session within the partition. The latest row per
+   * session is all "session_latest_v" and the merge need from a partition.
+   *
+   * @param partition to compact
+   * @return number of rows removed
+   */
+  long compactPartition(Partition partition) throws InterruptedException {
+    String table = toTableReference(deltaTableId);
+    String query = "DELETE FROM " + table + " d"
+        + " WHERE d._PARTITIONTIME = TIMESTAMP(PARSE_DATE('%Y%m%d', @partition_id))"
+        + " AND EXISTS(SELECT 1 FROM " + table + " n"
+        + " WHERE n._PARTITIONTIME = TIMESTAMP(PARSE_DATE('%Y%m%d', @partition_id))"
+        + " AND n.session_id = d.session_id"
+        + " AND n.di_sequence_number > d.di_sequence_number)";
+
+    Job job = bigQuery.create(JobInfo.of(QueryJobConfiguration.newBuilder(query)
+        .addNamedParameter("partition_id", QueryParameterValue.string(partition.partitionId))
+        .build()));
+    job = job.waitFor();
+    if (job.getStatus().getError() != null) {
+      throw new RuntimeException(
+          "Failed to compact partition " + partition + ": " + job.getStatus().getError());
+    }
+
+    QueryStatistics statistics = job.getStatistics();
+    long removed = statistics.getNumDmlAffectedRows() == null ? 0
+        : statistics.getNumDmlAffectedRows();
+    log.info("Compacted partition " + partition + ", removed " + removed + " row(s).");
+    return removed;
+  }
+}
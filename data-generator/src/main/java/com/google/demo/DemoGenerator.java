@@ -16,18 +16,26 @@
 
 package com.google.demo;
 
+import static com.google.demo.CommandLineUtil.getIntParameter;
+
 import com.google.cloud.bigquery.BigQueryOptions;
-import com.google.cloud.bigquery.InsertAllRequest;
 import com.google.cloud.bigquery.TableId;
 import com.google.cloud.bigtable.data.v2.BigtableDataClient;
 import com.google.cloud.bigtable.data.v2.BigtableDataSettings;
-import com.google.cloud.bigtable.data.v2.models.BulkMutation;
-import com.google.demo.model.Session;
-import com.google.demo.model.Session.Status;
+import com.google.demo.bigtable.CellEncoding;
+import com.google.demo.bigtable.RowKeyStrategy;
+import com.google.demo.lag.LagProbe;
+import com.google.demo.model.SessionBatch;
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.PrintWriter;
+import java.time.Clock;
+import java.time.Duration;
 import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.DefaultParser;
@@ -53,6 +61,12 @@ class DemoGenerator {
   private static final String UPDATE_PERCENT = "update_percent";
   private static final String DELETE_PERCENT = "delete_percent";
   private static final String PROJECT_ID = "project_id";
+  private static final String ROW_KEY_STRATEGY = "row_key_strategy";
+  private static final String CELL_ENCODING = "cell_encoding";
+  private static final String LAG_SAMPLE_INTERVAL = "lag_sample_interval";
+  private static final String LAG_POLL_INTERVAL = "lag_poll_interval";
+  private static final String LAG_TIMEOUT = "lag_timeout";
+  private static final String LAG_REPORT_FILE = "lag_report_file";
 
   // Entries below must match names defined in Terraform's variables.tf
   private static final String BQ_DATASET_ID = "cdc_demo";
@@ -66,6 +80,12 @@ class DemoGenerator {
     int percentOfUpdatesPerBatch;
     int percentOfDeletesPerBatch;
     String projectId;
+    RowKeyStrategy rowKeyStrategy;
+    CellEncoding cellEncoding;
+    int lagSampleInterval;
+    int lagPollIntervalInSeconds;
+    int lagTimeoutInSeconds;
+    String lagReportFile;
   }
 
   /**
@@ -84,7 +104,7 @@ class DemoGenerator {
     BigtableService bigTableService = new BigtableService(BigtableDataClient.create(
         BigtableDataSettings.newBuilder().setProjectId(params.projectId)
             .setInstanceId(BIGTABLE_INSTANCE_ID)
-            .build()));
+            .build()), params.rowKeyStrategy, params.cellEncoding);
 
     if (params.originalSessionCount > 0) {
       log.info("Starting batch inserts...");
@@ -94,7 +114,39 @@ class DemoGenerator {
 
     log.info("Starting data sync simulation...");
     TableId deltaSessionTableId = TableId.of(params.projectId, BQ_DATASET_ID, "session_delta");
-    doStreamingInserts(bigQueryService, bigTableService, deltaSessionTableId, params);
+
+    LagProbe lagProbe = null;
+    ScheduledExecutorService lagPoller = null;
+    if (params.lagSampleInterval > 0) {
+      TableId mainSessionTableId = TableId.of(params.projectId, BQ_DATASET_ID, "session_main");
+      lagProbe = new LagProbe(new BigQueryMirrorReader(
+          BigQueryOptions.getDefaultInstance().getService(), deltaSessionTableId,
+          mainSessionTableId), Clock.systemUTC(), params.lagSampleInterval,
+          Duration.ofSeconds(params.lagTimeoutInSeconds), Duration.ofMinutes(1));
+      lagPoller = Executors.newSingleThreadScheduledExecutor();
+      lagPoller.scheduleWithFixedDelay(lagProbe::poll, params.lagPollIntervalInSeconds,
+          params.lagPollIntervalInSeconds, TimeUnit.SECONDS);
+    }
+
+    try {
+      doStreamingInserts(
+          new CloudSessionSink(bigTableService, bigQueryService, deltaSessionTableId),
+          lagProbe, params);
+    } finally {
+      // Also when the generation fails - the poller's thread would keep the JVM running
+      if (lagProbe != null) {
+        lagPoller.shutdown();
+        lagPoller.awaitTermination(1, TimeUnit.MINUTES);
+        // Resolves the samples which became visible since the last scheduled poll, the
+        // remaining ones are reported as pending
+        lagProbe.poll();
+        try (PrintWriter writer = new PrintWriter(new FileWriter(params.lagReportFile))) {
+          lagProbe.writeReport(writer);
+        }
+        lagProbe.logSummary();
+        log.info("Replication lag report saved to " + params.lagReportFile);
+      }
+    }
   }
 
   /**
@@ -102,20 +154,16 @@ class DemoGenerator {
    *
    * The process runs continuously until a file named "sync.stop" appears in the current directory
    *
-   * @param bigQueryService
-   * @param bigtableService
-   * @param tableId
+   * @param sessionSink destination of the changes
+   * @param lagProbe optional, receives the inserts and updates to measure the replication lag
    * @param parameters
    * @throws InterruptedException
    */
-  private static void doStreamingInserts(BigQueryService bigQueryService,
-      BigtableService bigtableService, TableId tableId,
+  private static void doStreamingInserts(SessionSink sessionSink, LagProbe lagProbe,
       Parameters parameters)
       throws InterruptedException {
 
-    ArrayList<Session> previousRecords = new ArrayList<>();
-
-    Random random = new Random();
+    WorkloadGenerator workloadGenerator = new WorkloadGenerator(new Random());
 
     File stopFile = new File("sync.stop");
     while (true) {
@@ -124,71 +172,17 @@ class DemoGenerator {
         break;
       }
 
-      // Creating containers for Bigtable and BigQuery to store mutations and inserts
-      BulkMutation bulkMutation = bigtableService.createBulkMutationForSession();
-      InsertAllRequest.Builder insertRequestBuilder = InsertAllRequest.newBuilder(tableId);
-
-      // Creating new inserts
-      ArrayList<Session> newInserts = new ArrayList<>();
-      for (int i = 0; i < parameters.insertsPerBatch; i++) {
-        Session session = new Session();
-        newInserts.add(session);
+      SessionBatch batch = workloadGenerator.nextBatch(parameters.insertsPerBatch,
+          parameters.percentOfUpdatesPerBatch, parameters.percentOfDeletesPerBatch);
 
-        bigtableService.addOrUpdateSession(bulkMutation, session);
-        bigQueryService.addInsertRow(insertRequestBuilder, session.toBigQueryRow());
-      }
-
-      if (previousRecords.size() > 0) {
-        // Simulating updates
-        int updateCount = parameters.insertsPerBatch * parameters.percentOfUpdatesPerBatch / 100;
-        for (int i = 0; i < updateCount; i++) {
-          int nextRecordToUpdate = random.nextInt(previousRecords.size());
-          Session session = previousRecords.get(nextRecordToUpdate);
-          switch (session.getStatus()) {
-            case NEW:
-              session.loggedIn("customer" + i);
-              break;
-            case LOGGED_IN:
-              session.logout();
-              break;
-            default:
-              break;
-          }
-
-          bigtableService.addOrUpdateSession(bulkMutation, session);
-          bigQueryService.addUpdateRow(insertRequestBuilder, session.toBigQueryRow());
-        }
-
-        // Simulating deletes
-        int deleteCount = parameters.insertsPerBatch * parameters.percentOfDeletesPerBatch / 100;
-        while (deleteCount-- > 0) {
-          int nextRecordToDelete = random.nextInt(previousRecords.size());
-
-          Session session = previousRecords.get(nextRecordToDelete);
-          previousRecords.remove(nextRecordToDelete);
+      // Save the data into Bigtable and BigQuery
+      sessionSink.write(batch);
+      batch.markPersisted();
 
-          bigtableService.deleteSession(bulkMutation, session);
-          bigQueryService.addDeleteRow(insertRequestBuilder, session.toBigQueryRow());
-        }
+      if (lagProbe != null) {
+        lagProbe.offer(batch);
       }
 
-      // Only after updates and deletes on the previous records are done we are adding the newly created inserts
-      previousRecords.addAll(newInserts);
-
-      // Let's keep a limited number of recent records which we keep updating or deleting
-      while (previousRecords.size() > 10_000) {
-        Session session = previousRecords.remove(0);
-        if (session.getStatus() != Status.LOGGED_OUT) {
-          session.abandon();
-          bigtableService.addOrUpdateSession(bulkMutation, session);
-          bigQueryService.addUpdateRow(insertRequestBuilder, session.toBigQueryRow());
-        }
-      }
-
-      // Save the data into Bigtable and BigQuery
-      bigtableService.bulkUpdate(bulkMutation);
-      bigQueryService.runInsertAll(insertRequestBuilder);
-
       Thread.sleep(1000 * parameters.pauseBetweenBatchInSeconds);
     }
   }
@@ -211,9 +205,17 @@ class DemoGenerator {
       result.percentOfDeletesPerBatch = getIntParameter(cmd, DELETE_PERCENT, 5);
       result.percentOfUpdatesPerBatch = getIntParameter(cmd, UPDATE_PERCENT, 20);
       result.projectId = cmd.getOptionValue(PROJECT_ID);
+      result.rowKeyStrategy = RowKeyStrategy
+          .fromName(cmd.getOptionValue(ROW_KEY_STRATEGY, RowKeyStrategy.STRING.name()));
+      result.cellEncoding = CellEncoding
+          .fromName(cmd.getOptionValue(CELL_ENCODING, CellEncoding.TEXT.name()));
+      result.lagSampleInterval = getIntParameter(cmd, LAG_SAMPLE_INTERVAL, 0);
+      result.lagPollIntervalInSeconds = getIntParameter(cmd, LAG_POLL_INTERVAL, 10);
+      result.lagTimeoutInSeconds = getIntParameter(cmd, LAG_TIMEOUT, 3600);
+      result.lagReportFile = cmd.getOptionValue(LAG_REPORT_FILE, "replication-lag.csv");
 
       return result;
-    } catch (ParseException e) {
+    } catch (ParseException | IllegalArgumentException e) {
       new HelpFormatter().printHelp("java -jar target/data-generator-1.0-SNAPSHOT-shaded.jar", commandLineOptions);
       e.printStackTrace();
       System.exit(-1);
@@ -221,24 +223,6 @@ class DemoGenerator {
     }
   }
 
-  /**
-   * Helper function to extract an integer parameter
-   *
-   * @param cmd
-   * @param optionName
-   * @param defaultValue
-   * @return
-   * @throws ParseException
-   */
-  private static int getIntParameter(CommandLine cmd, String optionName, int defaultValue)
-      throws ParseException {
-    if (cmd.getOptionValue(optionName) == null) {
-      return defaultValue;
-    }
-    return ((Number) (cmd.getParsedOptionValue(optionName)))
-        .intValue();
-  }
-
   /**
    * @return available command line options
    */
@@ -286,6 +270,48 @@ class DemoGenerator {
             .hasArg()
             .argName("GCP project ID").build());
 
+    options.addOption(
+        Option.builder().longOpt(ROW_KEY_STRATEGY)
+            .desc("Bigtable row key: string, hash_prefix, reversed_timestamp or binary."
+                + " Must match the bigtable_row_key_strategy Terraform variable")
+            .hasArg()
+            .argName("strategy").build());
+
+    options.addOption(
+        Option.builder().longOpt(CELL_ENCODING)
+            .desc("Bigtable cell values: text or binary."
+                + " Must match the bigtable_cell_encoding Terraform variable")
+            .hasArg()
+            .argName("encoding").build());
+
+    options.addOption(
+        Option.builder().longOpt(LAG_SAMPLE_INTERVAL)
+            .desc("Measure the replication lag of one in this many inserts and updates."
+                + " 0 (default) disables the measurement")
+            .hasArg()
+            .type(Number.class)
+            .argName("number").build());
+
+    options.addOption(
+        Option.builder().longOpt(LAG_POLL_INTERVAL)
+            .desc("Pause between lookups of the sampled changes in BigQuery")
+            .hasArg()
+            .type(Number.class)
+            .argName("seconds").build());
+
+    options.addOption(
+        Option.builder().longOpt(LAG_TIMEOUT)
+            .desc("Sampled changes not visible after this long are counted as expired")
+            .hasArg()
+            .type(Number.class)
+            .argName("seconds").build());
+
+    options.addOption(
+        Option.builder().longOpt(LAG_REPORT_FILE)
+            .desc("CSV file the replication lag percentiles are saved to")
+            .hasArg()
+            .argName("file").build());
+
     return options;
   }
 }
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo;
+
+import com.google.cloud.bigquery.InsertAllRequest;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigtable.data.v2.models.BulkMutation;
+import com.google.demo.bigtable.CellEncoding;
+import com.google.demo.bigtable.RowKeyStrategy;
+import com.google.demo.model.SessionBatch;
+
+/**
+ * Local stand-in for <code>CloudSessionSink</code>: builds the same Bigtable bulk mutation and
+ * BigQuery insert request for every batch and drops them instead of sending them. Exercises all
+ * the client side work of the generator without any cloud resources and without retaining data.
+ */
+class EncodingOnlySessionSink implements SessionSink {
+
+  private final BigtableService bigtableService;
+  private final BigQueryService bigQueryService = new BigQueryService(null);
+  private final TableId deltaTableId = TableId.of("local", "cdc_demo", "session_delta");
+  private long rowCount;
+
+  /**
+   * @param rowKeyStrategy how to build the Bigtable row keys
+   * @param cellEncoding how to encode the Bigtable cell values
+   */
+  EncodingOnlySessionSink(RowKeyStrategy rowKeyStrategy, CellEncoding cellEncoding) {
+    bigtableService = new BigtableService(null, rowKeyStrategy, cellEncoding);
+  }
+
+  @Override
+  public void write(SessionBatch batch) {
+    BulkMutation bulkMutation = bigtableService.createBulkMutationForSession();
+    bigtableService.addBatch(bulkMutation, batch);
+    InsertAllRequest insertRequest = bigQueryService.createInsertRequest(deltaTableId, batch);
+    rowCount += insertRequest.getRows().size();
+  }
+
+  /**
+   * @return number of BigQuery rows encoded so far
+   */
+  long getRowCount() {
+    return rowCount;
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo;
+
+import static com.google.demo.BigQueryService.toTableReference;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobInfo;
+import com.google.cloud.bigquery.JobStatistics.QueryStatistics;
+import com.google.cloud.bigquery.QueryJobConfiguration;
+import com.google.cloud.bigquery.QueryParameterValue;
+import com.google.cloud.bigquery.Table;
+import com.google.cloud.bigquery.TableId;
+import com.google.demo.bigquery.ConversionUtil;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Maintains "session_latest" - a partitioned and clustered table with the latest state of every
+ * session. It contains the same rows as "session_latest_v" but is kept up to date incrementally,
+ * from the recent delta rows, instead of being recomputed by every query.
+ *
+ * Every refresh reads the delta rows generated up to <code>LOOKBACK</code> before the previous
+ * refresh, so the rows which became visible late, or were streamed by another generator with a
+ * lower sequence number, are not missed. The rows applied before are skipped by the sequence
+ * number check of the merge. The time of the previous refresh is stored in the labels of the
+ * table.
+ */
+class LatestStateService {
+
+  private static final Logger log = Logger.getLogger(LatestStateService.class.getName());
+
+  private static final String REFRESH_LABEL = "last_refresh_micros";
+
+  // Upper bound of the time between the generation of a change and its visibility in the delta
+  // table, e.g. because of retried streaming inserts
+  private static final Duration LOOKBACK = Duration.ofMinutes(90);
+
+  private final BigQuery bigQuery;
+  private final TableId latestTableId;
+  private final TableId deltaTableId;
+  private final TableId latestViewId;
+
+  /**
+   * @param bigQuery all the operations will use this object to operate on BigQuery
+   * @param latestTableId table to maintain
+   * @param deltaTableId source of the changes
+   * @param latestViewId view used to populate the table from scratch
+   */
+  LatestStateService(BigQuery bigQuery, TableId latestTableId, TableId deltaTableId,
+      TableId latestViewId) {
+    this.bigQuery = bigQuery;
+    this.latestTableId = latestTableId;
+    this.deltaTableId = deltaTableId;
+    this.latestViewId = latestViewId;
+  }
+
+  /**
+   * @return time of the last refresh, or <code>null</code> if the table was never populated.
+   * All the delta rows visible at that time were applied to the table.
+   */
+  Instant getLastRefreshTime() {
+    Table table = bigQuery.getTable(latestTableId);
+    if (table == null || table.getLabels() == null
+        || !table.getLabels().containsKey(REFRESH_LABEL)) {
+      return null;
+    }
+    return ConversionUtil
+        .convertToInstant(Long.parseLong(table.getLabels().get(REFRESH_LABEL)));
+  }
+
+  /**
+   * Replaces the content of the table with the content of "session_latest_v".
+   */
+  void rebuild() throws InterruptedException {
+    Instant refreshTime = Instant.now();
+
+    // Without a watermark a failed rebuild is retried by the next refresh, instead of the newer
+    // delta rows being applied to an incomplete table
+    clearWatermark();
+
+    // Rows added during the rebuild can end up in the table. They will be processed again by the
+    // next refresh which is harmless - the refresh is idempotent.
+    // The transaction keeps the previous content visible until the new content is committed.
+    runStatement(QueryJobConfiguration.newBuilder("BEGIN TRANSACTION;"
+        + " DELETE FROM " + toTableReference(latestTableId) + " WHERE TRUE;"
+        + " INSERT INTO " + toTableReference(latestTableId)
+        + " (session_id, start_ts, end_ts, status, customer_key, last_di_sequence_number)"
+        + " SELECT session_id, start_ts, end_ts, status, customer_key, di_sequence_number"
+        + " FROM " + toTableReference(latestViewId) + ";"
+        + " COMMIT TRANSACTION;").build());
+    log.info("Rebuilt " + latestTableId.getTable() + ".");
+
+    saveWatermark(refreshTime);
+  }
+
+  /**
+   * Applies the recent delta rows. Rebuilds the table if it was never populated.
+   */
+  void refresh() throws InterruptedException {
+    Instant previousRefreshTime = getLastRefreshTime();
+    if (previousRefreshTime == null) {
+      rebuild();
+      return;
+    }
+
+    Instant refreshTime = Instant.now();
+
+    String query = "MERGE " + toTableReference(latestTableId) + " l"
+        + " USING ("
+        + "  SELECT * EXCEPT(row_num) FROM ("
+        + "    SELECT *,"
+        + "      ROW_NUMBER() OVER (PARTITION BY session_id ORDER BY di_sequence_number DESC)"
+        + "        AS row_num"
+        + "    FROM " + toTableReference(deltaTableId)
+        + "    WHERE " + recentDeltaRowsCondition() + ")"
+        + "  WHERE row_num = 1) d"
+        + " ON l.session_id = d.session_id"
+        + " WHEN MATCHED AND l.last_di_sequence_number < d.di_sequence_number"
+        + "   AND d.di_operation_type = 'D' THEN DELETE"
+        + " WHEN MATCHED AND l.last_di_sequence_number < d.di_sequence_number THEN UPDATE SET"
+        + "   status = d.status, customer_key = d.customer_key, start_ts = d.start_ts,"
+        + "   end_ts = d.end_ts, last_di_sequence_number = d.di_sequence_number"
+        + " WHEN NOT MATCHED AND d.di_operation_type IN ('I', 'U') THEN INSERT"
+        + "   (session_id, status, customer_key, start_ts, end_ts, last_di_sequence_number)"
+        + "   VALUES (d.session_id, d.status, d.customer_key, d.start_ts, d.end_ts,"
+        + "     d.di_sequence_number)";
+
+    Instant from = previousRefreshTime.minus(LOOKBACK);
+    long affected = runStatement(QueryJobConfiguration.newBuilder(query)
+        .addNamedParameter("from_partition", QueryParameterValue.timestamp(
+            ConversionUtil.convertToMicros(from.truncatedTo(ChronoUnit.DAYS))))
+        .addNamedParameter("from_generated", QueryParameterValue.timestamp(
+            ConversionUtil.convertToMicros(from)))
+        .build());
+    log.info("Applied delta rows added since the refresh at " + previousRefreshTime + ", "
+        + affected + " row(s) affected.");
+
+    saveWatermark(refreshTime);
+  }
+
+  /**
+   * Rows in the streaming buffer have no partition yet. The other rows are pruned to the
+   * partitions of the lookback - usually only the current day - and, as the delta table is
+   * clustered by the generation time, to the blocks of the lookback within them. Rows without
+   * a generation time predate the column and are only read from the partitions of the lookback.
+   */
+  private static String recentDeltaRowsCondition() {
+    return "(_PARTITIONTIME IS NULL OR _PARTITIONTIME >= @from_partition)"
+        + " AND (di_generated_ts IS NULL OR di_generated_ts >= @from_generated)";
+  }
+
+  private void saveWatermark(Instant refreshTime) {
+    Map<String, String> labels = new HashMap<>();
+    labels.put(REFRESH_LABEL,
+        Long.toString(ConversionUtil.convertToMicros(refreshTime)));
+    updateLabels(labels);
+  }
+
+  private void clearWatermark() {
+    Map<String, String> labels = new HashMap<>();
+    // Labels set to null are removed
+    labels.put(REFRESH_LABEL, null);
+    updateLabels(labels);
+  }
+
+  private void updateLabels(Map<String, String> changes) {
+    Table table = bigQuery.getTable(latestTableId);
+    if (table == null) {
+      // This is an acceptable approach for a demo program
+      throw new RuntimeException("Table " + latestTableId.getTable() + " doesn't exist.");
+    }
+    Map<String, String> labels = new HashMap<>();
+    if (table.getLabels() != null) {
+      labels.putAll(table.getLabels());
+    }
+    labels.putAll(changes);
+    table.toBuilder().setLabels(labels).build().update();
+  }
+
+  /**
+   * Runs a DML statement or a script.
+   *
+   * @return number of affected rows, 0 for a script
+   */
+  private long runStatement(QueryJobConfiguration configuration) throws InterruptedException {
+    Job job = bigQuery.create(JobInfo.of(configuration));
+    job = job.waitFor();
+    if (job.getStatus().getError() != null) {
+      // This is an acceptable approach for a demo program
+      throw new RuntimeException(
+          "Failed to run " + configuration.getQuery() + ": " + job.getStatus().getError());
+    }
+    QueryStatistics statistics = job.getStatistics();
+    return statistics.getNumDmlAffectedRows() == null ? 0 : statistics.getNumDmlAffectedRows();
+  }
+}
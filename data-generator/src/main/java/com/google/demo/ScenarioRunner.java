@@ -0,0 +1,515 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo;
+
+import static com.google.demo.CommandLineUtil.getIntParameter;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryOptions;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigtable.data.v2.BigtableDataClient;
+import com.google.cloud.bigtable.data.v2.BigtableDataSettings;
+import com.google.demo.DeltaCompactionService.MergeJobs;
+import com.google.demo.bigtable.CellEncoding;
+import com.google.demo.bigtable.RowKeyStrategy;
+import com.google.demo.lag.LagProbe;
+import com.google.demo.lag.LagProbe.LagStatistics;
+import com.google.demo.lag.MirrorReader;
+import com.google.demo.lag.MirrorReader.Stage;
+import com.google.demo.local.LocalMirror;
+import com.google.demo.model.SessionBatch;
+import com.google.demo.scenario.PhaseResult;
+import com.google.demo.scenario.Scenario;
+import com.google.demo.scenario.Scenario.Phase;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Runs every scenario against every sink and saves the throughput, write latency, replication
+ * lag and merge cost of every phase to a CSV and a JSON file.
+ *
+ * Sinks:
+ * <ul>
+ * <li>local - the in-memory <code>LocalMirror</code>, merged and compacted at the scenario's
+ * merge interval. Merge cost is the number of rows read by the merges.</li>
+ * <li>encoding - <code>EncodingOnlySessionSink</code>, measures the client side work only.</li>
+ * <li>cloud - Bigtable and BigQuery, like <code>DemoGenerator</code>. The merges run on their
+ * own schedule, merge cost is read from the job history: the bytes processed and the duration
+ * of the MERGE jobs which started during the phase.</li>
+ * </ul>
+ */
+class ScenarioRunner {
+
+  private static final Logger log = Logger.getLogger(ScenarioRunner.class.getName());
+
+  private static final String SCENARIO = "scenario";
+  private static final String SINK = "sink";
+  private static final String PROJECT_ID = "project_id";
+  private static final String ROW_KEY_STRATEGY = "row_key_strategy";
+  private static final String CELL_ENCODING = "cell_encoding";
+  private static final String RESULTS_FILE = "results_file";
+  private static final String DRAIN_TIMEOUT = "drain_timeout";
+  private static final String REGION = "region";
+
+  private static final String LOCAL_SINK = "local";
+  private static final String ENCODING_SINK = "encoding";
+  private static final String CLOUD_SINK = "cloud";
+
+  // Entries below must match names defined in Terraform's variables.tf
+  private static final String BQ_DATASET_ID = "cdc_demo";
+  private static final String BIGTABLE_INSTANCE_ID = "bq-sync-instance";
+  private static final String BQ_DATASET_REGION = "us";
+
+  private static final Duration LAG_TIMEOUT = Duration.ofHours(1);
+  private static final int CLOUD_LAG_POLL_INTERVAL_IN_SECONDS = 5;
+  private static final long PACING_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  private static class Parameters {
+
+    List<Scenario> scenarios = new ArrayList<>();
+    List<String> sinks = new ArrayList<>();
+    String projectId;
+    RowKeyStrategy rowKeyStrategy;
+    CellEncoding cellEncoding;
+    String resultsFile;
+    int drainTimeoutInSeconds;
+    String region;
+  }
+
+  /**
+   * Destination of a run and the ways to observe it.
+   */
+  private static class Target implements AutoCloseable {
+
+    SessionSink sessionSink;
+    // Optional, used to measure the replication lag
+    MirrorReader mirrorReader;
+    // Only set for the local sink, which is merged by the runner
+    LocalMirror localMirror;
+    // Only set for the cloud sink, closed at the end of the run
+    BigtableDataClient bigtableClient;
+    // Only set for the cloud sink, reads the cost of the merges
+    DeltaCompactionService compactionService;
+
+    @Override
+    public void close() {
+      if (bigtableClient != null) {
+        bigtableClient.close();
+      }
+    }
+  }
+
+  /**
+   * Statistics collected while running a phase.
+   */
+  private static class PhaseStatistics {
+
+    Instant start;
+    Instant end;
+    double seconds;
+    long events;
+    List<Long> writeMicros = new ArrayList<>();
+    int merges;
+    long mergeRowsScanned;
+    long mergeBytesProcessed;
+    long mergeMillis;
+  }
+
+  /**
+   * Main function of the scenario runner.
+   *
+   * @param args runner arguments
+   * @throws IOException
+   * @throws InterruptedException
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Parameters params = getParameters(args);
+
+    List<PhaseResult> results = new ArrayList<>();
+    for (Scenario scenario : params.scenarios) {
+      for (String sink : params.sinks) {
+        log.info("Running scenario " + scenario.getName() + " against the " + sink + " sink...");
+        try (Target target = createTarget(sink, params)) {
+          results.addAll(run(scenario, sink, target, params.drainTimeoutInSeconds));
+        }
+      }
+    }
+
+    try (PrintWriter writer = new PrintWriter(new FileWriter(params.resultsFile + ".csv"))) {
+      PhaseResult.writeCsv(results, writer);
+    }
+    try (PrintWriter writer = new PrintWriter(new FileWriter(params.resultsFile + ".json"))) {
+      PhaseResult.writeJson(results, writer);
+    }
+    log.info("Results saved to " + params.resultsFile + ".csv and " + params.resultsFile
+        + ".json");
+  }
+
+  private static Target createTarget(String sink, Parameters params) throws IOException {
+    Target result = new Target();
+    switch (sink) {
+      case LOCAL_SINK:
+        result.localMirror = new LocalMirror();
+        result.sessionSink = result.localMirror;
+        result.mirrorReader = result.localMirror;
+        break;
+      case ENCODING_SINK:
+        result.sessionSink = new EncodingOnlySessionSink(params.rowKeyStrategy,
+            params.cellEncoding);
+        break;
+      case CLOUD_SINK:
+        BigQuery bigQuery = BigQueryOptions.getDefaultInstance().getService();
+        TableId deltaTableId = TableId.of(params.projectId, BQ_DATASET_ID, "session_delta");
+        TableId mainTableId = TableId.of(params.projectId, BQ_DATASET_ID, "session_main");
+        result.bigtableClient = BigtableDataClient.create(
+            BigtableDataSettings.newBuilder().setProjectId(params.projectId)
+                .setInstanceId(BIGTABLE_INSTANCE_ID)
+                .build());
+        BigtableService bigtableService = new BigtableService(result.bigtableClient,
+            params.rowKeyStrategy, params.cellEncoding);
+        result.sessionSink = new CloudSessionSink(bigtableService, new BigQueryService(bigQuery),
+            deltaTableId);
+        result.mirrorReader = new BigQueryMirrorReader(bigQuery, deltaTableId, mainTableId);
+        result.compactionService = new DeltaCompactionService(bigQuery, deltaTableId,
+            mainTableId, params.region);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown sink " + sink);
+    }
+    return result;
+  }
+
+  /**
+   * Runs all the phases of the scenario.
+   *
+   * @param drainTimeoutInSeconds maximum time to wait for the pending lag samples of the cloud
+   * sink once the last phase is over
+   * @return results of every phase followed by the results of the whole scenario
+   */
+  private static List<PhaseResult> run(Scenario scenario, String sink, Target target,
+      int drainTimeoutInSeconds) throws InterruptedException {
+    WorkloadGenerator workloadGenerator = new WorkloadGenerator(new Random(0));
+
+    LagProbe lagProbe = null;
+    ScheduledExecutorService lagPoller = null;
+    if (target.mirrorReader != null && scenario.getLagSampleInterval() > 0) {
+      lagProbe = new LagProbe(target.mirrorReader, Clock.systemUTC(),
+          scenario.getLagSampleInterval(), LAG_TIMEOUT, Duration.ofMinutes(1));
+      if (target.localMirror == null) {
+        lagPoller = Executors.newSingleThreadScheduledExecutor();
+        lagPoller.scheduleWithFixedDelay(lagProbe::poll, CLOUD_LAG_POLL_INTERVAL_IN_SECONDS,
+            CLOUD_LAG_POLL_INTERVAL_IN_SECONDS, TimeUnit.SECONDS);
+      }
+    }
+
+    List<PhaseStatistics> phaseStatistics = new ArrayList<>();
+    try {
+      long lastMergeTime = System.nanoTime();
+      for (Phase phase : scenario.getPhases()) {
+        PhaseStatistics statistics = new PhaseStatistics();
+        phaseStatistics.add(statistics);
+        statistics.start = Instant.now();
+        long phaseStartTime = System.nanoTime();
+        long durationNanos = TimeUnit.SECONDS.toNanos(phase.getDurationInSeconds());
+        // The local lag probe is polled after every batch, the time of the polls is excluded
+        // from the phase so that it doesn't lower the measured throughput
+        long pollNanos = 0;
+
+        long elapsedNanos = 0;
+        long inserts = 0;
+        while (elapsedNanos < durationNanos) {
+          SessionBatch batch = workloadGenerator.nextBatch(phase.getInsertsPerBatch(),
+              phase.getPercentOfUpdatesPerBatch(), phase.getPercentOfDeletesPerBatch(),
+              phase.getPercentOfHotKeyUpdates());
+          long writeStartTime = System.nanoTime();
+          target.sessionSink.write(batch);
+          batch.markPersisted();
+          statistics.writeMicros.add(
+              TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - writeStartTime));
+          statistics.events += batch.size();
+          inserts += phase.getInsertsPerBatch();
+
+          if (lagProbe != null) {
+            lagProbe.offer(batch);
+          }
+          if (target.localMirror != null) {
+            if (scenario.getMergeIntervalInSeconds() > 0 && System.nanoTime() - lastMergeTime
+                >= TimeUnit.SECONDS.toNanos(scenario.getMergeIntervalInSeconds())) {
+              lastMergeTime = merge(target.localMirror, statistics);
+            }
+            if (lagProbe != null) {
+              long pollStartTime = System.nanoTime();
+              lagProbe.poll();
+              pollNanos += System.nanoTime() - pollStartTime;
+            }
+          }
+
+          // Wait until the rate of the phase allows the inserts written so far
+          elapsedNanos = System.nanoTime() - phaseStartTime - pollNanos;
+          while (phase.isPaced() && elapsedNanos < durationNanos
+              && inserts > phase.getInserts(elapsedNanos / 1e9)) {
+            TimeUnit.NANOSECONDS.sleep(
+                Math.min(PACING_INTERVAL_NANOS, durationNanos - elapsedNanos));
+            elapsedNanos = System.nanoTime() - phaseStartTime - pollNanos;
+          }
+        }
+
+        statistics.end = Instant.now();
+        statistics.seconds = elapsedNanos / 1e9;
+        log.info(String.format("Phase %s: %d events, %.0f events/s", phase.getName(),
+            statistics.events, statistics.events / statistics.seconds));
+      }
+
+      // Lets the changes of the last phase reach the merge stage before the lag is read, the final
+      // merge is counted in the last phase
+      if (target.localMirror != null) {
+        merge(target.localMirror, phaseStatistics.get(phaseStatistics.size() - 1));
+        if (lagProbe != null) {
+          lagProbe.poll();
+        }
+      }
+      if (lagPoller != null) {
+        long drainEndTime = System.nanoTime() + TimeUnit.SECONDS.toNanos(drainTimeoutInSeconds);
+        while (getPendingSamples(lagProbe) > 0 && System.nanoTime() < drainEndTime) {
+          TimeUnit.SECONDS.sleep(CLOUD_LAG_POLL_INTERVAL_IN_SECONDS);
+        }
+        lagPoller.shutdown();
+        lagPoller.awaitTermination(1, TimeUnit.MINUTES);
+        lagProbe.poll();
+        if (getPendingSamples(lagProbe) > 0) {
+          log.info(getPendingSamples(lagProbe) + " lag sample(s) still pending after "
+              + drainTimeoutInSeconds + " seconds.");
+        }
+      }
+    } finally {
+      // Also when the run fails - the poller's thread would keep the JVM running
+      if (lagPoller != null) {
+        lagPoller.shutdownNow();
+      }
+    }
+    if (target.compactionService != null) {
+      readMergeJobs(target.compactionService, phaseStatistics, Instant.now());
+    }
+
+    List<PhaseResult> results = new ArrayList<>();
+    PhaseStatistics total = new PhaseStatistics();
+    for (int i = 0; i < phaseStatistics.size(); i++) {
+      PhaseStatistics statistics = phaseStatistics.get(i);
+      results.add(toResult(scenario, sink, scenario.getPhases().get(i).getName(), statistics,
+          target, lagProbe));
+
+      total.start = total.start == null ? statistics.start : total.start;
+      total.end = statistics.end;
+      total.seconds += statistics.seconds;
+      total.events += statistics.events;
+      total.writeMicros.addAll(statistics.writeMicros);
+      total.merges += statistics.merges;
+      total.mergeRowsScanned += statistics.mergeRowsScanned;
+      total.mergeBytesProcessed += statistics.mergeBytesProcessed;
+      total.mergeMillis += statistics.mergeMillis;
+    }
+    results.add(toResult(scenario, sink, "all", total, target, lagProbe));
+    return results;
+  }
+
+  private static int getPendingSamples(LagProbe lagProbe) {
+    int result = 0;
+    for (Stage stage : Stage.values()) {
+      result += lagProbe.getStatistics(stage).getPending();
+    }
+    return result;
+  }
+
+  /**
+   * Merges the delta into the main table and drops the merged delta rows.
+   *
+   * @return time of the merge
+   */
+  private static long merge(LocalMirror localMirror, PhaseStatistics statistics) {
+    long rowsScannedBefore = localMirror.getRowsScanned();
+    long startTime = System.nanoTime();
+    localMirror.merge();
+    long endTime = System.nanoTime();
+    localMirror.compact();
+
+    statistics.merges++;
+    statistics.mergeRowsScanned += localMirror.getRowsScanned() - rowsScannedBefore;
+    statistics.mergeMillis += TimeUnit.NANOSECONDS.toMillis(endTime - startTime);
+    return endTime;
+  }
+
+  /**
+   * Reads the cost of the merges of the cloud sink. The merges which started after the last
+   * phase, while the run waited for the last changes to be merged, are counted in the last phase.
+   *
+   * @param runEnd end of the run
+   */
+  private static void readMergeJobs(DeltaCompactionService compactionService,
+      List<PhaseStatistics> phaseStatistics, Instant runEnd) throws InterruptedException {
+    for (int i = 0; i < phaseStatistics.size(); i++) {
+      PhaseStatistics statistics = phaseStatistics.get(i);
+      Instant end = i + 1 < phaseStatistics.size() ? phaseStatistics.get(i + 1).start : runEnd;
+      MergeJobs mergeJobs = compactionService.getMergeJobs(statistics.start, end);
+      statistics.merges = mergeJobs.count;
+      statistics.mergeBytesProcessed = mergeJobs.bytesProcessed;
+      statistics.mergeMillis = mergeJobs.millis;
+    }
+  }
+
+  private static PhaseResult toResult(Scenario scenario, String sink, String phase,
+      PhaseStatistics statistics, Target target, LagProbe lagProbe) {
+    boolean local = target.localMirror != null;
+    boolean merged = local || target.compactionService != null;
+    return new PhaseResult(scenario.getName(), sink, phase, statistics.seconds,
+        statistics.events, LagStatistics.of(statistics.writeMicros, 0),
+        lagProbe == null ? null
+            : lagProbe.getStatistics(Stage.STREAM, statistics.start, statistics.end),
+        lagProbe == null ? null
+            : lagProbe.getStatistics(Stage.MERGE, statistics.start, statistics.end),
+        merged ? statistics.merges : -1,
+        local ? statistics.mergeRowsScanned : -1,
+        merged && !local ? statistics.mergeBytesProcessed : -1,
+        merged ? statistics.mergeMillis : -1);
+  }
+
+  /**
+   * Extract and validate command line parameters.
+   *
+   * @param args
+   * @return parameters object with strongly typed parameters, exits if validation failed.
+   */
+  private static Parameters getParameters(String[] args) {
+    Options commandLineOptions = createCommandLineOptions();
+
+    Parameters result = new Parameters();
+    try {
+      CommandLine cmd = (new DefaultParser()).parse(commandLineOptions, args);
+      for (String scenarioFile : cmd.getOptionValues(SCENARIO)) {
+        result.scenarios.add(Scenario.load(Paths.get(scenarioFile)));
+      }
+      for (String sink : cmd.getOptionValue(SINK, LOCAL_SINK).split(",")) {
+        sink = sink.trim().toLowerCase();
+        if (!sink.equals(LOCAL_SINK) && !sink.equals(ENCODING_SINK)
+            && !sink.equals(CLOUD_SINK)) {
+          throw new IllegalArgumentException("Unknown sink " + sink);
+        }
+        result.sinks.add(sink);
+      }
+      result.projectId = cmd.getOptionValue(PROJECT_ID);
+      if (result.sinks.contains(CLOUD_SINK) && result.projectId == null) {
+        throw new IllegalArgumentException("The cloud sink requires --" + PROJECT_ID);
+      }
+      result.rowKeyStrategy = RowKeyStrategy
+          .fromName(cmd.getOptionValue(ROW_KEY_STRATEGY, RowKeyStrategy.STRING.name()));
+      result.cellEncoding = CellEncoding
+          .fromName(cmd.getOptionValue(CELL_ENCODING, CellEncoding.TEXT.name()));
+      result.resultsFile = cmd.getOptionValue(RESULTS_FILE, "scenario-results");
+      result.drainTimeoutInSeconds = getIntParameter(cmd, DRAIN_TIMEOUT, 600);
+      result.region = cmd.getOptionValue(REGION, BQ_DATASET_REGION);
+
+      return result;
+    } catch (ParseException | IllegalArgumentException | IOException e) {
+      new HelpFormatter().printHelp(
+          "java -cp target/data-generator-1.0-SNAPSHOT-shaded.jar "
+              + ScenarioRunner.class.getName(), commandLineOptions);
+      e.printStackTrace();
+      System.exit(-1);
+      return null;
+    }
+  }
+
+  /**
+   * @return available command line options
+   */
+  private static Options createCommandLineOptions() {
+    Options options = new Options();
+
+    options.addOption(
+        Option.builder().longOpt(SCENARIO).required()
+            .desc("Scenario file, can be repeated")
+            .hasArg()
+            .argName("file").build());
+
+    options.addOption(
+        Option.builder().longOpt(SINK)
+            .desc("Comma separated sinks to run every scenario against: local (default),"
+                + " encoding or cloud")
+            .hasArg()
+            .argName("sinks").build());
+
+    options.addOption(
+        Option.builder().longOpt(PROJECT_ID)
+            .desc("Project, required by the cloud sink")
+            .hasArg()
+            .argName("GCP project ID").build());
+
+    options.addOption(
+        Option.builder().longOpt(ROW_KEY_STRATEGY)
+            .desc("Bigtable row key: string, hash_prefix, reversed_timestamp or binary."
+                + " Must match the bigtable_row_key_strategy Terraform variable")
+            .hasArg()
+            .argName("strategy").build());
+
+    options.addOption(
+        Option.builder().longOpt(CELL_ENCODING)
+            .desc("Bigtable cell values: text or binary."
+                + " Must match the bigtable_cell_encoding Terraform variable")
+            .hasArg()
+            .argName("encoding").build());
+
+    options.addOption(
+        Option.builder().longOpt(RESULTS_FILE)
+            .desc("Results are saved to this file with .csv and .json extensions")
+            .hasArg()
+            .argName("file").build());
+
+    options.addOption(
+        Option.builder().longOpt(DRAIN_TIMEOUT)
+            .desc("Maximum time to wait for the merge of the last changes of every scenario run"
+                + " against the cloud sink")
+            .hasArg()
+            .type(Number.class)
+            .argName("seconds").build());
+
+    options.addOption(
+        Option.builder().longOpt(REGION)
+            .desc("Location of the dataset, used by the cloud sink to read the cost of the"
+                + " merges; default is \"" + BQ_DATASET_REGION + "\"")
+            .hasArg()
+            .argName("region").build());
+
+    return options;
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo;
+
+import static com.google.demo.CommandLineUtil.getIntParameter;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryOptions;
+import com.google.cloud.bigquery.TableId;
+import com.google.demo.DeltaCompactionService.Partition;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Removes the "session_delta" partitions which were already merged into "session_main" and
+ * optionally compacts the remaining partitions.
+ *
+ * Replaces "remove-processed-session-delta-partitions.py" which needs to join the delta and the
+ * main tables to find partitions safe to delete.
+ */
+class SessionDeltaCompactor {
+
+  private static final Logger log = Logger.getLogger(SessionDeltaCompactor.class.getName());
+
+  private static final String PROJECT_ID = "project_id";
+  private static final String REGION = "region";
+  private static final String DELETE_PARALLELISM = "delete_parallelism";
+  private static final String COMPACT_MIN_ROWS = "compact_min_rows";
+  private static final String DRY_RUN = "dry_run";
+
+  // Entries below must match names defined in Terraform's variables.tf and bigquery.tf
+  private static final String BQ_DATASET_ID = "cdc_demo";
+  private static final String BQ_DATASET_REGION = "us";
+
+  private static class Parameters {
+
+    String projectId;
+    String region;
+    int deleteParallelism;
+    int compactMinRows;
+    boolean dryRun;
+  }
+
+  /**
+   * Main function of the compactor. To see usage run without any parameters.
+   *
+   * @param args compactor arguments
+   * @throws InterruptedException
+   */
+  public static void main(String[] args) throws InterruptedException {
+    Parameters params = getParameters(args);
+
+    BigQuery bigQuery = BigQueryOptions.getDefaultInstance().getService();
+    TableId deltaTableId = TableId.of(params.projectId, BQ_DATASET_ID, "session_delta");
+
+    DeltaCompactionService compactionService = new DeltaCompactionService(bigQuery,
+        deltaTableId, TableId.of(params.projectId, BQ_DATASET_ID, "session_main"),
+        params.region);
+
+    Instant highWaterMark = compactionService.getMergeHighWaterMark();
+    log.info("Merge high-water mark: " + highWaterMark);
+
+    // Partitions not yet applied to "session_latest" must be kept as well
+    LatestStateService latestStateService = new LatestStateService(bigQuery,
+        TableId.of(params.projectId, BQ_DATASET_ID, "session_latest"), deltaTableId,
+        TableId.of(params.projectId, BQ_DATASET_ID, "session_latest_v"));
+    Instant lastRefreshTime = latestStateService.getLastRefreshTime();
+    if (highWaterMark != null && lastRefreshTime != null
+        && lastRefreshTime.isBefore(highWaterMark)) {
+      log.info("Last session_latest refresh: " + lastRefreshTime);
+      highWaterMark = lastRefreshTime;
+    }
+
+    List<Partition> partitions = compactionService.listPartitions();
+    List<Partition> partitionsToDelete = DeltaCompactionService
+        .selectPartitionsToDelete(partitions, highWaterMark);
+    List<Partition> partitionsToCompact = params.compactMinRows > 0
+        ? DeltaCompactionService
+        .selectPartitionsToCompact(partitions, partitionsToDelete, params.compactMinRows)
+        : Collections.emptyList();
+
+    log.info("Partitions safe to delete: " + partitionsToDelete);
+    log.info("Partitions to compact: " + partitionsToCompact);
+    if (params.dryRun) {
+      return;
+    }
+
+    int deleted = compactionService
+        .deletePartitions(partitionsToDelete, params.deleteParallelism);
+    log.info("Deleted " + deleted + " partition(s).");
+
+    for (Partition partition : partitionsToCompact) {
+      compactionService.compactPartition(partition);
+    }
+  }
+
+  /**
+   * Extract and validate command line parameters.
+   *
+   * @param args
+   * @return parameters object with strongly typed parameters, exits if validation failed.
+   */
+  private static Parameters getParameters(String[] args) {
+    Options commandLineOptions = createCommandLineOptions();
+
+    Parameters result = new Parameters();
+    try {
+      CommandLine cmd = (new DefaultParser()).parse(commandLineOptions, args);
+      result.projectId = cmd.getOptionValue(PROJECT_ID);
+      result.region = cmd.getOptionValue(REGION, BQ_DATASET_REGION);
+      result.deleteParallelism = getIntParameter(cmd, DELETE_PARALLELISM, 4);
+      result.compactMinRows = getIntParameter(cmd, COMPACT_MIN_ROWS, 0);
+      result.dryRun = cmd.hasOption(DRY_RUN);
+
+      if (result.deleteParallelism < 1) {
+        throw new ParseException(DELETE_PARALLELISM + " must be positive");
+      }
+
+      return result;
+    } catch (ParseException e) {
+      new HelpFormatter().printHelp(
+          "java -cp target/data-generator-1.0-SNAPSHOT-shaded.jar "
+              + SessionDeltaCompactor.class.getName(), commandLineOptions);
+      e.printStackTrace();
+      System.exit(-1);
+      return null;
+    }
+  }
+
+  /**
+   * @return available command line options
+   */
+  private static Options createCommandLineOptions() {
+    Options options = new Options();
+
+    options.addOption(
+        Option.builder().longOpt(PROJECT_ID).required()
+            .desc("Project")
+            .hasArg()
+            .argName("GCP project ID").build());
+
+    options.addOption(
+        Option.builder().longOpt(REGION)
+            .desc("Location of the dataset, default is \"" + BQ_DATASET_REGION + "\"")
+            .hasArg()
+            .argName("region").build());
+
+    options.addOption(
+        Option.builder().longOpt(DELETE_PARALLELISM)
+            .desc("Number of partitions deleted concurrently")
+            .hasArg()
+            .type(Number.class)
+            .argName("number").build());
+
+    options.addOption(
+        Option.builder().longOpt(COMPACT_MIN_ROWS)
+            .desc("Compact remaining partitions with at least this many rows, 0 disables"
+                + " compaction")
+            .hasArg()
+            .type(Number.class)
+            .argName("number").build());
+
+    options.addOption(
+        Option.builder().longOpt(DRY_RUN)
+            .desc("Only list the partitions to delete and compact")
+            .build());
+
+    return options;
+  }
+}
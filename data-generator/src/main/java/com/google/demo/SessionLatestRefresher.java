@@ -0,0 +1,127 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo;
+
+import static com.google.demo.CommandLineUtil.getIntParameter;
+
+import com.google.cloud.bigquery.BigQueryOptions;
+import com.google.cloud.bigquery.TableId;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Keeps the "session_latest" table up to date with the changes streamed into "session_delta".
+ */
+class SessionLatestRefresher {
+
+  private static final String PROJECT_ID = "project_id";
+  private static final String REBUILD = "rebuild";
+  private static final String PAUSE_BETWEEN_REFRESHES = "pause_between_refreshes";
+
+  // Entries below must match names defined in Terraform's variables.tf and bigquery.tf
+  private static final String BQ_DATASET_ID = "cdc_demo";
+
+  private static class Parameters {
+
+    String projectId;
+    boolean rebuild;
+    int pauseBetweenRefreshesInSeconds;
+  }
+
+  /**
+   * Main function of the refresher. To see usage run without any parameters.
+   *
+   * @param args refresher arguments
+   * @throws InterruptedException
+   */
+  public static void main(String[] args) throws InterruptedException {
+    Parameters params = getParameters(args);
+
+    LatestStateService latestStateService = new LatestStateService(
+        BigQueryOptions.getDefaultInstance().getService(),
+        TableId.of(params.projectId, BQ_DATASET_ID, "session_latest"),
+        TableId.of(params.projectId, BQ_DATASET_ID, "session_delta"),
+        TableId.of(params.projectId, BQ_DATASET_ID, "session_latest_v"));
+
+    if (params.rebuild) {
+      latestStateService.rebuild();
+    }
+
+    do {
+      latestStateService.refresh();
+      Thread.sleep(1000L * params.pauseBetweenRefreshesInSeconds);
+    } while (params.pauseBetweenRefreshesInSeconds > 0);
+  }
+
+  /**
+   * Extract and validate command line parameters.
+   *
+   * @param args
+   * @return parameters object with strongly typed parameters, exits if validation failed.
+   */
+  private static Parameters getParameters(String[] args) {
+    Options commandLineOptions = createCommandLineOptions();
+
+    Parameters result = new Parameters();
+    try {
+      CommandLine cmd = (new DefaultParser()).parse(commandLineOptions, args);
+      result.projectId = cmd.getOptionValue(PROJECT_ID);
+      result.rebuild = cmd.hasOption(REBUILD);
+      result.pauseBetweenRefreshesInSeconds = getIntParameter(cmd, PAUSE_BETWEEN_REFRESHES, 0);
+
+      return result;
+    } catch (ParseException e) {
+      new HelpFormatter().printHelp(
+          "java -cp target/data-generator-1.0-SNAPSHOT-shaded.jar "
+              + SessionLatestRefresher.class.getName(), commandLineOptions);
+      e.printStackTrace();
+      System.exit(-1);
+      return null;
+    }
+  }
+
+  /**
+   * @return available command line options
+   */
+  private static Options createCommandLineOptions() {
+    Options options = new Options();
+
+    options.addOption(
+        Option.builder().longOpt(PROJECT_ID).required()
+            .desc("Project")
+            .hasArg()
+            .argName("GCP project ID").build());
+
+    options.addOption(
+        Option.builder().longOpt(REBUILD)
+            .desc("Repopulate the table from session_latest_v before refreshing it")
+            .build());
+
+    options.addOption(
+        Option.builder().longOpt(PAUSE_BETWEEN_REFRESHES)
+            .desc("Keep refreshing with this pause between refreshes, 0 refreshes once")
+            .hasArg()
+            .type(Number.class)
+            .argName("seconds").build());
+
+    return options;
+  }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo;
+
+import com.google.demo.model.SessionBatch;
+
+/**
+ * Destination of the generated changes.
+ */
+public interface SessionSink {
+
+  /**
+   * Persists all the changes of the batch. The batch is reused once the method returns.
+   *
+   * Throws if the changes weren't persisted; the caller then doesn't mark the batch as persisted,
+   * so that the next changes of its sessions write all the cells which are out of date.
+   */
+  void write(SessionBatch batch);
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo;
+
+import static com.google.demo.CommandLineUtil.getIntParameter;
+
+import com.google.demo.bigtable.CellEncoding;
+import com.google.demo.bigtable.RowKeyStrategy;
+import com.google.demo.model.SessionBatch;
+import com.google.demo.soak.JvmMonitor;
+import com.google.demo.soak.SoakReport;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Runs the generator's workload for a fixed time or number of events against the local
+ * stand-in sinks, which encode every batch the way the cloud sinks do and drop it, and reports
+ * the throughput, allocation rate, garbage collections and heap used after them.
+ *
+ * Exits with status 1 if the throughput or the heap trend regress past the thresholds.
+ */
+class SoakRunner {
+
+  private static final Logger log = Logger.getLogger(SoakRunner.class.getName());
+
+  private static final String DURATION = "duration";
+  private static final String EVENTS = "events";
+  private static final String INSERTS_PER_BATCH = "inserts_per_batch";
+  private static final String UPDATE_PERCENT = "update_percent";
+  private static final String DELETE_PERCENT = "delete_percent";
+  private static final String ROW_KEY_STRATEGY = "row_key_strategy";
+  private static final String CELL_ENCODING = "cell_encoding";
+  private static final String REPORT_INTERVAL = "report_interval";
+  private static final String WARMUP = "warmup";
+  private static final String MAX_THROUGHPUT_DROP = "max_throughput_drop";
+  private static final String MAX_HEAP_GROWTH = "max_heap_growth";
+  private static final String REPORT_FILE = "report_file";
+
+  private static class Parameters {
+
+    int durationInSeconds;
+    long events;
+    int insertsPerBatch;
+    int percentOfUpdatesPerBatch;
+    int percentOfDeletesPerBatch;
+    RowKeyStrategy rowKeyStrategy;
+    CellEncoding cellEncoding;
+    int reportIntervalInSeconds;
+    int warmupInSeconds;
+    int maxThroughputDropPercent;
+    double maxHeapGrowthMbPerMinute;
+    String reportFile;
+  }
+
+  /**
+   * Main function of the soak run.
+   *
+   * @param args soak run arguments
+   * @throws IOException
+   */
+  public static void main(String[] args) throws IOException {
+    Parameters params = getParameters(args);
+
+    WorkloadGenerator workloadGenerator = new WorkloadGenerator(new Random(0));
+    SessionSink sessionSink = new EncodingOnlySessionSink(params.rowKeyStrategy,
+        params.cellEncoding);
+    SoakReport report = new SoakReport(params.warmupInSeconds);
+
+    log.info("Starting soak run...");
+    long totalEvents = 0;
+    try (JvmMonitor jvmMonitor = new JvmMonitor()) {
+      long startTime = System.nanoTime();
+      long endTime = startTime + TimeUnit.SECONDS.toNanos(params.durationInSeconds);
+      long intervalNanos = TimeUnit.SECONDS.toNanos(params.reportIntervalInSeconds);
+      long intervalStart = startTime;
+      long intervalEvents = 0;
+
+      while (true) {
+        SessionBatch batch = workloadGenerator.nextBatch(params.insertsPerBatch,
+            params.percentOfUpdatesPerBatch, params.percentOfDeletesPerBatch);
+        sessionSink.write(batch);
+        batch.markPersisted();
+        intervalEvents += batch.size();
+        totalEvents += batch.size();
+
+        long now = System.nanoTime();
+        boolean finished = now >= endTime || (params.events > 0 && totalEvents >= params.events);
+        if (finished || now - intervalStart >= intervalNanos) {
+          report.addInterval((now - startTime) / 1e9, (now - intervalStart) / 1e9,
+              intervalEvents, jvmMonitor.collect());
+          intervalStart = now;
+          intervalEvents = 0;
+        }
+        if (finished) {
+          break;
+        }
+      }
+    }
+
+    try (PrintWriter writer = new PrintWriter(new FileWriter(params.reportFile))) {
+      report.writeCsv(writer);
+    }
+    log.info(String.format("Generated %d events. Throughput drop %.1f%%, heap after GC growth"
+            + " %.2f MB/min, longest GC pause %d ms. Report saved to %s", totalEvents,
+        report.getThroughputDropPercent(), report.getHeapGrowthMbPerMinute(),
+        report.getMaxGcMillis(), params.reportFile));
+
+    List<String> failures = report.check(params.maxThroughputDropPercent,
+        params.maxHeapGrowthMbPerMinute);
+    if (!failures.isEmpty()) {
+      for (String failure : failures) {
+        log.severe(failure);
+      }
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Extract and validate command line parameters.
+   *
+   * @param args
+   * @return parameters object with strongly typed parameters, exits if validation failed.
+   */
+  private static Parameters getParameters(String[] args) {
+    Options commandLineOptions = createCommandLineOptions();
+
+    Parameters result = new Parameters();
+    try {
+      CommandLine cmd = (new DefaultParser()).parse(commandLineOptions, args);
+      result.durationInSeconds = getIntParameter(cmd, DURATION, 600);
+      result.events = getIntParameter(cmd, EVENTS, 0);
+      result.insertsPerBatch = getIntParameter(cmd, INSERTS_PER_BATCH, 500);
+      result.percentOfUpdatesPerBatch = getIntParameter(cmd, UPDATE_PERCENT, 20);
+      result.percentOfDeletesPerBatch = getIntParameter(cmd, DELETE_PERCENT, 5);
+      result.rowKeyStrategy = RowKeyStrategy
+          .fromName(cmd.getOptionValue(ROW_KEY_STRATEGY, RowKeyStrategy.STRING.name()));
+      result.cellEncoding = CellEncoding
+          .fromName(cmd.getOptionValue(CELL_ENCODING, CellEncoding.TEXT.name()));
+      result.reportIntervalInSeconds = getIntParameter(cmd, REPORT_INTERVAL, 10);
+      result.warmupInSeconds = getIntParameter(cmd, WARMUP, 60);
+      result.maxThroughputDropPercent = getIntParameter(cmd, MAX_THROUGHPUT_DROP, 20);
+      result.maxHeapGrowthMbPerMinute = Double
+          .parseDouble(cmd.getOptionValue(MAX_HEAP_GROWTH, "1"));
+      result.reportFile = cmd.getOptionValue(REPORT_FILE, "soak-report.csv");
+
+      return result;
+    } catch (ParseException | IllegalArgumentException e) {
+      new HelpFormatter().printHelp(
+          "java -cp target/data-generator-1.0-SNAPSHOT-shaded.jar "
+              + SoakRunner.class.getName(), commandLineOptions);
+      e.printStackTrace();
+      System.exit(-1);
+      return null;
+    }
+  }
+
+  /**
+   * @return available command line options
+   */
+  private static Options createCommandLineOptions() {
+    Options options = new Options();
+
+    options.addOption(
+        Option.builder().longOpt(DURATION)
+            .desc("Length of the run")
+            .hasArg()
+            .type(Number.class)
+            .argName("seconds").build());
+
+    options.addOption(
+        Option.builder().longOpt(EVENTS)
+            .desc("Stop after this many change events, even before the end of the duration."
+                + " 0 (default) runs for the whole duration")
+            .hasArg()
+            .type(Number.class)
+            .argName("number").build());
+
+    options.addOption(
+        Option.builder().longOpt(INSERTS_PER_BATCH)
+            .desc("Number of inserts per batch")
+            .hasArg()
+            .type(Number.class)
+            .argName("number").build());
+
+    options.addOption(
+        Option.builder().longOpt(UPDATE_PERCENT)
+            .desc("Percentage of updates relative to inserts")
+            .hasArg()
+            .type(Number.class)
+            .argName("number").build());
+
+    options.addOption(
+        Option.builder().longOpt(DELETE_PERCENT)
+            .desc("Percentage of deletes relative to inserts")
+            .hasArg()
+            .type(Number.class)
+            .argName("number").build());
+
+    options.addOption(
+        Option.builder().longOpt(ROW_KEY_STRATEGY)
+            .desc("Bigtable row key: string, hash_prefix, reversed_timestamp or binary")
+            .hasArg()
+            .argName("strategy").build());
+
+    options.addOption(
+        Option.builder().longOpt(CELL_ENCODING)
+            .desc("Bigtable cell values: text or binary")
+            .hasArg()
+            .argName("encoding").build());
+
+    options.addOption(
+        Option.builder().longOpt(REPORT_INTERVAL)
+            .desc("Length of the reported intervals")
+            .hasArg()
+            .type(Number.class)
+            .argName("seconds").build());
+
+    options.addOption(
+        Option.builder().longOpt(WARMUP)
+            .desc("Intervals ending within this time from the start are not checked")
+            .hasArg()
+            .type(Number.class)
+            .argName("seconds").build());
+
+    options.addOption(
+        Option.builder().longOpt(MAX_THROUGHPUT_DROP)
+            .desc("Fail if the throughput of the last third of the run is lower than the"
+                + " throughput of the first third by more than this percentage")
+            .hasArg()
+            .type(Number.class)
+            .argName("percent").build());
+
+    options.addOption(
+        Option.builder().longOpt(MAX_HEAP_GROWTH)
+            .desc("Fail if the heap used after GC grows faster than this")
+            .hasArg()
+            .argName("MB per minute").build());
+
+    options.addOption(
+        Option.builder().longOpt(REPORT_FILE)
+            .desc("CSV file the statistics of every interval are saved to")
+            .hasArg()
+            .argName("file").build());
+
+    return options;
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo;
+
+import static com.google.demo.Constants.DELETE_OP;
+import static com.google.demo.Constants.INSERT_OP;
+import static com.google.demo.Constants.UPDATE_OP;
+
+import com.google.demo.bigquery.ConversionUtil;
+import com.google.demo.model.Session;
+import com.google.demo.model.Session.Status;
+import com.google.demo.model.SessionBatch;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simulates the changes of the source "session" table: new sessions, updates and deletes of a
+ * limited number of recent sessions, and abandonment of the sessions which drop out of them.
+ *
+ * Updates can be skewed towards hot sessions: the newest <code>1 / HOT_KEY_FRACTION</code> of
+ * the recent sessions, which e.g. concentrates the writes on a few Bigtable rows.
+ */
+class WorkloadGenerator {
+
+  // Number of recent sessions which keep being updated or deleted
+  private static final int MAX_PREVIOUS_RECORDS = 10_000;
+  // One in this many recent sessions is hot
+  private static final int HOT_KEY_FRACTION = 100;
+
+  private final Random random;
+  private final ArrayList<Session> previousRecords = new ArrayList<>();
+  private final ArrayList<Session> newInserts = new ArrayList<>();
+  // Reused by every batch, the sinks encode their writes from it
+  private final SessionBatch batch = new SessionBatch(1_000);
+  // Technically doesn't need to be atomic (the demo generator doesn't use concurrency at the
+  // moment). Starts from the current time in microseconds to keep growing across restarts of the
+  // generator - the merge and the incremental "session_latest" refresh rely on it.
+  private final AtomicLong insertSequence = new AtomicLong(
+      ConversionUtil.convertToMicros(Instant.now()));
+
+  /**
+   * @param random source of the sessions to update and delete
+   */
+  WorkloadGenerator(Random random) {
+    this.random = random;
+  }
+
+  /**
+   * Generates the changes of the next batch, the updates are spread evenly.
+   *
+   * @param insertsPerBatch number of new sessions
+   * @param percentOfUpdatesPerBatch number of updates as a percentage of the inserts
+   * @param percentOfDeletesPerBatch number of deletes as a percentage of the inserts
+   * @return the changes, only valid until the next call
+   */
+  SessionBatch nextBatch(int insertsPerBatch, int percentOfUpdatesPerBatch,
+      int percentOfDeletesPerBatch) {
+    return nextBatch(insertsPerBatch, percentOfUpdatesPerBatch, percentOfDeletesPerBatch, 0);
+  }
+
+  /**
+   * Generates the changes of the next batch.
+   *
+   * @param insertsPerBatch number of new sessions
+   * @param percentOfUpdatesPerBatch number of updates as a percentage of the inserts
+   * @param percentOfDeletesPerBatch number of deletes as a percentage of the inserts
+   * @param percentOfHotKeyUpdates percentage of the updates which go to the hot sessions
+   * @return the changes, only valid until the next call
+   */
+  SessionBatch nextBatch(int insertsPerBatch, int percentOfUpdatesPerBatch,
+      int percentOfDeletesPerBatch, int percentOfHotKeyUpdates) {
+    batch.clear();
+    newInserts.clear();
+
+    // Creating new inserts
+    for (int i = 0; i < insertsPerBatch; i++) {
+      Session session = new Session();
+      newInserts.add(session);
+
+      addChange(session, INSERT_OP);
+    }
+
+    if (previousRecords.size() > 0) {
+      // Simulating updates
+      int updateCount = insertsPerBatch * percentOfUpdatesPerBatch / 100;
+      int hotRecords = Math.max(previousRecords.size() / HOT_KEY_FRACTION, 1);
+      for (int i = 0; i < updateCount; i++) {
+        // Without skew the random sequence stays the same as before skew was introduced
+        boolean hot = percentOfHotKeyUpdates > 0 && random.nextInt(100) < percentOfHotKeyUpdates;
+        int nextRecordToUpdate = hot
+            ? previousRecords.size() - 1 - random.nextInt(hotRecords)
+            : random.nextInt(previousRecords.size());
+        Session session = previousRecords.get(nextRecordToUpdate);
+        switch (session.getStatus()) {
+          case NEW:
+            session.loggedIn("customer" + i);
+            break;
+          case LOGGED_IN:
+            session.logout();
+            break;
+          default:
+            break;
+        }
+
+        addChange(session, UPDATE_OP);
+      }
+
+      // Simulating deletes
+      int deleteCount = insertsPerBatch * percentOfDeletesPerBatch / 100;
+      while (deleteCount-- > 0 && previousRecords.size() > 0) {
+        int nextRecordToDelete = random.nextInt(previousRecords.size());
+
+        Session session = previousRecords.get(nextRecordToDelete);
+        previousRecords.remove(nextRecordToDelete);
+
+        addChange(session, DELETE_OP);
+      }
+    }
+
+    // Only after updates and deletes on the previous records are done we are adding the newly
+    // created inserts
+    previousRecords.addAll(newInserts);
+
+    // Let's keep a limited number of recent records which we keep updating or deleting. The
+    // oldest ones are removed at once - removing them one by one shifts the whole list every time.
+    int excess = previousRecords.size() - MAX_PREVIOUS_RECORDS;
+    if (excess > 0) {
+      List<Session> oldest = previousRecords.subList(0, excess);
+      for (Session session : oldest) {
+        if (session.getStatus() != Status.LOGGED_OUT) {
+          session.abandon();
+          addChange(session, UPDATE_OP);
+        }
+      }
+      oldest.clear();
+    }
+
+    return batch;
+  }
+
+  /**
+   * @return number of recent sessions which keep being updated or deleted
+   */
+  int getPreviousRecordCount() {
+    return previousRecords.size();
+  }
+
+  private void addChange(Session session, String operation) {
+    // Millisecond precision is enough to measure the replication lag
+    batch.add(session, operation, insertSequence.incrementAndGet(),
+        System.currentTimeMillis() * 1_000);
+  }
+}
@@ -34,7 +34,34 @@ public class ConversionUtil {
     if (instant == null) {
       return null;
     }
-    return QueryParameterValue.timestamp(ChronoUnit.MICROS.between(Instant.EPOCH, instant))
-        .getValue();
+    return convertToTimestamp(convertToMicros(instant));
+  }
+
+  /**
+   * Converts microseconds since epoch into BigQuery timestamp
+   * @param micros since epoch
+   * @return String representation of the timestamp
+   */
+  public static String convertToTimestamp(long micros) {
+    return QueryParameterValue.timestamp(micros).getValue();
+  }
+
+  /**
+   * Converts instant into microseconds since epoch, the precision of BigQuery timestamps
+   * @param instant to convert
+   * @return microseconds since epoch
+   */
+  public static long convertToMicros(Instant instant) {
+    // Same as ChronoUnit.MICROS.between(Instant.EPOCH, instant) after the epoch, without allocating
+    return instant.getEpochSecond() * 1_000_000 + instant.getNano() / 1_000;
+  }
+
+  /**
+   * Converts microseconds since epoch, e.g. the result of UNIX_MICROS(), into instant
+   * @param micros since epoch
+   * @return instant
+   */
+  public static Instant convertToInstant(long micros) {
+    return Instant.EPOCH.plus(micros, ChronoUnit.MICROS);
   }
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo.bigtable;
+
+import com.google.demo.bigquery.ConversionUtil;
+import com.google.demo.model.Session.Status;
+import com.google.protobuf.ByteString;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+
+/**
+ * Ways to encode the Bigtable cell values of a session.
+ *
+ * Must match the "bigtable_cell_encoding" Terraform variable - the external table definition
+ * and "session_source_v" decode the cells accordingly.
+ */
+public enum CellEncoding {
+  /**
+   * Status names and BigQuery timestamp strings.
+   */
+  TEXT,
+  /**
+   * Single byte status codes and timestamps as 8 byte big-endian microseconds since epoch.
+   */
+  BINARY;
+
+  // Status codes are decoded by "session_source_v", don't change them
+  private static final ByteString[] STATUS_CODES = {
+      ByteString.copyFrom(new byte[]{0}),
+      ByteString.copyFrom(new byte[]{1}),
+      ByteString.copyFrom(new byte[]{2}),
+      ByteString.copyFrom(new byte[]{3})};
+
+  // Text encoded statuses indexed by ordinal
+  private static final ByteString[] STATUS_NAMES = new ByteString[Status.values().length];
+
+  static {
+    for (Status status : Status.values()) {
+      STATUS_NAMES[status.ordinal()] = ByteString.copyFromUtf8(status.name());
+    }
+  }
+
+  /**
+   * @return encoded status
+   */
+  public ByteString encodeStatus(Status status) {
+    if (this == TEXT) {
+      return STATUS_NAMES[status.ordinal()];
+    }
+    switch (status) {
+      case NEW:
+        return STATUS_CODES[0];
+      case ABANDONED:
+        return STATUS_CODES[1];
+      case LOGGED_IN:
+        return STATUS_CODES[2];
+      case LOGGED_OUT:
+        return STATUS_CODES[3];
+      default:
+        throw new IllegalArgumentException("Unknown status " + status);
+    }
+  }
+
+  /**
+   * @return encoded timestamp
+   */
+  public ByteString encodeTimestamp(Instant instant) {
+    return encodeTimestamp(ConversionUtil.convertToMicros(instant));
+  }
+
+  /**
+   * @param micros since epoch
+   * @return encoded timestamp
+   */
+  public ByteString encodeTimestamp(long micros) {
+    if (this == TEXT) {
+      return ByteString.copyFromUtf8(ConversionUtil.convertToTimestamp(micros));
+    }
+    return ByteString.copyFrom(ByteBuffer.allocate(8).putLong(micros).array());
+  }
+
+  /**
+   * @return encoded string; strings are UTF-8 in both encodings
+   */
+  public ByteString encodeString(String value) {
+    return ByteString.copyFromUtf8(value);
+  }
+
+  /**
+   * Parses the value of the command line option, e.g. "binary".
+   */
+  public static CellEncoding fromName(String name) {
+    return valueOf(name.toUpperCase());
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo.bigtable;
+
+import com.google.demo.bigquery.ConversionUtil;
+import com.google.protobuf.ByteString;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Ways to build the Bigtable row key of a session.
+ *
+ * Must match the "bigtable_row_key_strategy" Terraform variable - "session_source_v" extracts
+ * the session id from the row key accordingly.
+ */
+public enum RowKeyStrategy {
+  /**
+   * Session id as is.
+   */
+  STRING,
+  /**
+   * Two hex digits derived from the hash of the session id, "#" and the session id. Spreads
+   * the writes across 256 evenly sized key ranges regardless of the id format.
+   */
+  HASH_PREFIX,
+  /**
+   * Hash prefix, "#", the start of the session as 16 hex digits subtracted from the maximum long,
+   * "#" and the session id. The most recent sessions of every prefix are next to each other,
+   * sorted newest first, while the prefix still spreads the writes.
+   */
+  REVERSED_TIMESTAMP,
+  /**
+   * 16 bytes of the session id UUID. Less than half the size of the string forms.
+   */
+  BINARY;
+
+  private static final char SEPARATOR = '#';
+
+  /**
+   * @param sessionId session UUID
+   * @param start session start, only used by <code>REVERSED_TIMESTAMP</code>
+   * @return row key of the session
+   */
+  public ByteString rowKey(String sessionId, Instant start) {
+    return rowKey(sessionId, ConversionUtil.convertToMicros(start));
+  }
+
+  /**
+   * @param sessionId session UUID
+   * @param startMicros session start in microseconds since epoch, only used by
+   * <code>REVERSED_TIMESTAMP</code>
+   * @return row key of the session
+   */
+  public ByteString rowKey(String sessionId, long startMicros) {
+    switch (this) {
+      case STRING:
+        return ByteString.copyFromUtf8(sessionId);
+      case HASH_PREFIX:
+        return ByteString.copyFromUtf8(hashPrefix(sessionId) + SEPARATOR + sessionId);
+      case REVERSED_TIMESTAMP:
+        long reversed = Long.MAX_VALUE - startMicros;
+        return ByteString.copyFromUtf8(hashPrefix(sessionId) + SEPARATOR
+            + toFixedWidthHex(reversed) + SEPARATOR + sessionId);
+      case BINARY:
+        UUID uuid = UUID.fromString(sessionId);
+        return ByteString.copyFrom(ByteBuffer.allocate(16)
+            .putLong(uuid.getMostSignificantBits())
+            .putLong(uuid.getLeastSignificantBits())
+            .array());
+      default:
+        throw new IllegalStateException("Unknown row key strategy " + this);
+    }
+  }
+
+  /**
+   * Parses the value of the command line option, e.g. "hash_prefix".
+   */
+  public static RowKeyStrategy fromName(String name) {
+    return valueOf(name.toUpperCase());
+  }
+
+  private static String hashPrefix(String sessionId) {
+    int bucket = Math.floorMod(sessionId.hashCode(), 256);
+    return new String(new char[]{Character.forDigit(bucket >> 4, 16),
+        Character.forDigit(bucket & 0xF, 16)});
+  }
+
+  private static String toFixedWidthHex(long value) {
+    String hex = Long.toHexString(value);
+    StringBuilder result = new StringBuilder(16);
+    for (int i = hex.length(); i < 16; i++) {
+      result.append('0');
+    }
+    return result.append(hex).toString();
+  }
+}
@@ -0,0 +1,426 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo.lag;
+
+import com.google.demo.bigquery.ConversionUtil;
+import com.google.demo.lag.MirrorReader.Stage;
+import com.google.demo.model.SessionBatch;
+import java.io.PrintWriter;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Measures how long it takes for generated changes to become visible at every stage of the
+ * pipeline.
+ *
+ * The generator offers every change it produces together with its sequence number and
+ * generation time; one in <code>sampleInterval</code> changes is kept. Each call to
+ * <code>poll()</code> looks the pending samples up in the mirror. A sample becomes visible at a
+ * stage once the stage shows a sequence number at least as high as the sample's; the lag is the
+ * time between the generation and the poll which found it, so its resolution is the polling
+ * interval.
+ *
+ * The pending samples are bounded; the samples offered while the limit is reached are dropped and
+ * counted as such.
+ */
+public class LagProbe {
+
+  private static final Logger log = Logger.getLogger(LagProbe.class.getName());
+
+  // Samples offered above this limit of pending samples are dropped to keep the probe's memory
+  // bounded
+  private static final int MAX_PENDING_SAMPLES = 10_000;
+
+  private static class Sample {
+
+    final String sessionId;
+    final long sequence;
+    final Instant generatedAt;
+
+    Sample(String sessionId, long sequence, Instant generatedAt) {
+      this.sessionId = sessionId;
+      this.sequence = sequence;
+      this.generatedAt = generatedAt;
+    }
+  }
+
+  private static class Observation {
+
+    final Instant generatedAt;
+    final long lagMillis;
+
+    Observation(Instant generatedAt, long lagMillis) {
+      this.generatedAt = generatedAt;
+      this.lagMillis = lagMillis;
+    }
+  }
+
+  private final MirrorReader mirrorReader;
+  private final Clock clock;
+  private final int sampleInterval;
+  private final Duration timeout;
+  private final Duration bucketSize;
+
+  // Linked lists - the samples which became visible are removed from the middle by every poll
+  private final Map<Stage, List<Sample>> pending = new EnumMap<>(Stage.class);
+  private final Map<Stage, List<Observation>> observations = new EnumMap<>(Stage.class);
+  // Generation times of the expired samples
+  private final Map<Stage, List<Instant>> expired = new EnumMap<>(Stage.class);
+  // Generation times of the samples dropped because too many samples were pending
+  private final Map<Stage, List<Instant>> dropped = new EnumMap<>(Stage.class);
+  private long offered;
+  private int failedPolls;
+
+  /**
+   * @param mirrorReader used to look the samples up
+   * @param clock source of the current time, must match the clock of the generation times
+   * @param sampleInterval one in this many offered changes is sampled
+   * @param timeout samples not visible after this long are counted as expired
+   * @param bucketSize length of the time series buckets
+   */
+  public LagProbe(MirrorReader mirrorReader, Clock clock, int sampleInterval, Duration timeout,
+      Duration bucketSize) {
+    this.mirrorReader = mirrorReader;
+    this.clock = clock;
+    this.sampleInterval = sampleInterval;
+    this.timeout = timeout;
+    this.bucketSize = bucketSize;
+    for (Stage stage : Stage.values()) {
+      pending.put(stage, new LinkedList<>());
+      observations.put(stage, new ArrayList<>());
+      expired.put(stage, new ArrayList<>());
+      dropped.put(stage, new ArrayList<>());
+    }
+  }
+
+  /**
+   * Offers a generated insert or update for sampling.
+   *
+   * @param sessionId of the changed session
+   * @param sequence of the change
+   * @param generatedAt time of the change
+   */
+  public synchronized void offer(String sessionId, long sequence, Instant generatedAt) {
+    if (offered++ % sampleInterval != 0) {
+      return;
+    }
+    Sample sample = new Sample(sessionId, sequence, generatedAt);
+    for (Stage stage : Stage.values()) {
+      List<Sample> stageSamples = pending.get(stage);
+      if (stageSamples.size() < MAX_PENDING_SAMPLES) {
+        stageSamples.add(sample);
+      } else {
+        dropped.get(stage).add(generatedAt);
+      }
+    }
+  }
+
+  /**
+   * Offers the inserts and updates of the batch for sampling.
+   */
+  public void offer(SessionBatch batch) {
+    for (int i = 0; i < batch.size(); i++) {
+      if (!batch.isDelete(i)) {
+        offer(batch.getSessionId(i), batch.getSequence(i),
+            ConversionUtil.convertToInstant(batch.getGeneratedMicros(i)));
+      }
+    }
+  }
+
+  /**
+   * Looks all the pending samples up in the mirror. Failed lookups are logged and retried by the
+   * next poll, so that an error doesn't cancel the periodic polling.
+   */
+  public void poll() {
+    try {
+      pollStages();
+    } catch (RuntimeException e) {
+      synchronized (this) {
+        failedPolls++;
+      }
+      log.log(Level.WARNING, "Failed to look the lag samples up", e);
+    }
+  }
+
+  private void pollStages() {
+    for (Stage stage : Stage.values()) {
+      Set<String> sessionIds = new HashSet<>();
+      synchronized (this) {
+        for (Sample sample : pending.get(stage)) {
+          sessionIds.add(sample.sessionId);
+        }
+      }
+      if (sessionIds.isEmpty()) {
+        continue;
+      }
+
+      // The lookup runs without the lock, so that the generator can keep offering samples
+      Map<String, Long> sequences = mirrorReader.readSequences(stage, sessionIds);
+      Instant now = clock.instant();
+
+      synchronized (this) {
+        Iterator<Sample> iterator = pending.get(stage).iterator();
+        while (iterator.hasNext()) {
+          Sample sample = iterator.next();
+          Long sequence = sequences.get(sample.sessionId);
+          if (sequence != null && sequence >= sample.sequence) {
+            observations.get(stage).add(new Observation(sample.generatedAt,
+                Duration.between(sample.generatedAt, now).toMillis()));
+            iterator.remove();
+          } else if (sample.generatedAt.plus(timeout).isBefore(now)) {
+            expired.get(stage).add(sample.generatedAt);
+            iterator.remove();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * @return lag percentiles of all the observations of the stage, in milliseconds
+   */
+  public synchronized LagStatistics getStatistics(Stage stage) {
+    List<Long> lags = new ArrayList<>();
+    for (Observation observation : observations.get(stage)) {
+      lags.add(observation.lagMillis);
+    }
+    return LagStatistics.of(lags, expired.get(stage).size(), pending.get(stage).size(),
+        dropped.get(stage).size());
+  }
+
+  /**
+   * @param from start of the generation time range, inclusive
+   * @param to end of the generation time range, exclusive
+   * @return lag percentiles of the observations of the changes generated within the range, in
+   * milliseconds, and the numbers of their expired, pending and dropped samples
+   */
+  public synchronized LagStatistics getStatistics(Stage stage, Instant from, Instant to) {
+    List<Long> lags = new ArrayList<>();
+    for (Observation observation : observations.get(stage)) {
+      if (isWithin(observation.generatedAt, from, to)) {
+        lags.add(observation.lagMillis);
+      }
+    }
+    int expiredCount = 0;
+    for (Instant generatedAt : expired.get(stage)) {
+      if (isWithin(generatedAt, from, to)) {
+        expiredCount++;
+      }
+    }
+    int pendingCount = 0;
+    for (Sample sample : pending.get(stage)) {
+      if (isWithin(sample.generatedAt, from, to)) {
+        pendingCount++;
+      }
+    }
+    int droppedCount = 0;
+    for (Instant generatedAt : dropped.get(stage)) {
+      if (isWithin(generatedAt, from, to)) {
+        droppedCount++;
+      }
+    }
+    return LagStatistics.of(lags, expiredCount, pendingCount, droppedCount);
+  }
+
+  private static boolean isWithin(Instant instant, Instant from, Instant to) {
+    return !instant.isBefore(from) && instant.isBefore(to);
+  }
+
+  /**
+   * @return number of polls which failed to look the samples up
+   */
+  public synchronized int getFailedPolls() {
+    return failedPolls;
+  }
+
+  /**
+   * Writes the percentiles per stage, overall and per time bucket of the generation time, as
+   * CSV.
+   */
+  public synchronized void writeReport(PrintWriter writer) {
+    writer.println(
+        "stage,bucket_start,samples,expired,pending,dropped,p50_ms,p90_ms,p99_ms,max_ms");
+    for (Stage stage : Stage.values()) {
+      writeReportLine(writer, stage, "all", getStatistics(stage));
+
+      Set<Instant> bucketStarts = new TreeSet<>();
+      for (Observation observation : observations.get(stage)) {
+        bucketStarts.add(bucketStart(observation.generatedAt));
+      }
+      for (Instant generatedAt : expired.get(stage)) {
+        bucketStarts.add(bucketStart(generatedAt));
+      }
+      for (Sample sample : pending.get(stage)) {
+        bucketStarts.add(bucketStart(sample.generatedAt));
+      }
+      for (Instant generatedAt : dropped.get(stage)) {
+        bucketStarts.add(bucketStart(generatedAt));
+      }
+      for (Instant bucketStart : bucketStarts) {
+        writeReportLine(writer, stage, bucketStart.toString(),
+            getStatistics(stage, bucketStart, bucketStart.plus(bucketSize)));
+      }
+    }
+    writer.flush();
+  }
+
+  /**
+   * Logs the overall percentiles of every stage.
+   */
+  public void logSummary() {
+    for (Stage stage : Stage.values()) {
+      log.info("Replication lag, " + stage.name().toLowerCase() + " visibility: "
+          + getStatistics(stage));
+    }
+    if (getFailedPolls() > 0) {
+      log.info(getFailedPolls() + " poll(s) of the samples failed, see the warnings above.");
+    }
+  }
+
+  private Instant bucketStart(Instant generatedAt) {
+    long bucketMillis = bucketSize.toMillis();
+    return Instant.ofEpochMilli(generatedAt.toEpochMilli() / bucketMillis * bucketMillis);
+  }
+
+  private static void writeReportLine(PrintWriter writer, Stage stage, String bucket,
+      LagStatistics statistics) {
+    writer.println(stage.name().toLowerCase() + "," + bucket + "," + statistics.getSamples()
+        + "," + statistics.getExpired() + "," + statistics.getPending() + ","
+        + statistics.getDropped() + "," + statistics.getP50() + "," + statistics.getP90() + ","
+        + statistics.getP99() + "," + statistics.getMax());
+  }
+
+  /**
+   * Percentiles of a set of lag or latency observations.
+   */
+  public static class LagStatistics {
+
+    private final int samples;
+    private final int expired;
+    private final int pending;
+    private final int dropped;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long max;
+
+    private LagStatistics(int samples, int expired, int pending, int dropped, long p50, long p90,
+        long p99, long max) {
+      this.samples = samples;
+      this.expired = expired;
+      this.pending = pending;
+      this.dropped = dropped;
+      this.p50 = p50;
+      this.p90 = p90;
+      this.p99 = p99;
+      this.max = max;
+    }
+
+    /**
+     * @param lags observations, e.g. in milliseconds
+     * @param expired number of samples which were never observed
+     */
+    public static LagStatistics of(List<Long> lags, int expired) {
+      return of(lags, expired, 0);
+    }
+
+    /**
+     * @param lags observations, e.g. in milliseconds
+     * @param expired number of samples which were never observed
+     * @param pending number of samples which weren't observed yet
+     */
+    public static LagStatistics of(List<Long> lags, int expired, int pending) {
+      return of(lags, expired, pending, 0);
+    }
+
+    /**
+     * @param lags observations, e.g. in milliseconds
+     * @param expired number of samples which were never observed
+     * @param pending number of samples which weren't observed yet
+     * @param dropped number of samples which weren't kept because too many were pending
+     */
+    public static LagStatistics of(List<Long> lags, int expired, int pending, int dropped) {
+      if (lags.isEmpty()) {
+        return new LagStatistics(0, expired, pending, dropped, 0, 0, 0, 0);
+      }
+      List<Long> sorted = new ArrayList<>(lags);
+      Collections.sort(sorted);
+      return new LagStatistics(sorted.size(), expired, pending, dropped, percentile(sorted, 50),
+          percentile(sorted, 90), percentile(sorted, 99), sorted.get(sorted.size() - 1));
+    }
+
+    /**
+     * Nearest-rank percentile.
+     */
+    private static long percentile(List<Long> sorted, int percentile) {
+      int rank = (int) Math.ceil(percentile / 100.0 * sorted.size());
+      return sorted.get(Math.max(rank, 1) - 1);
+    }
+
+    public int getSamples() {
+      return samples;
+    }
+
+    public int getExpired() {
+      return expired;
+    }
+
+    public int getPending() {
+      return pending;
+    }
+
+    public int getDropped() {
+      return dropped;
+    }
+
+    public long getP50() {
+      return p50;
+    }
+
+    public long getP90() {
+      return p90;
+    }
+
+    public long getP99() {
+      return p99;
+    }
+
+    public long getMax() {
+      return max;
+    }
+
+    @Override
+    public String toString() {
+      return samples + " samples, " + expired + " expired, " + pending + " pending, " + dropped
+          + " dropped, p50=" + p50 + "ms, p90=" + p90 + "ms, p99=" + p99 + "ms, max=" + max
+          + "ms";
+    }
+  }
+}
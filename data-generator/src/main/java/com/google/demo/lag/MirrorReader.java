@@ -0,0 +1,49 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo.lag;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Read access to the replicated sessions, used by the <code>LagProbe</code>.
+ */
+public interface MirrorReader {
+
+  /**
+   * Pipeline stages a change goes through.
+   */
+  enum Stage {
+    /**
+     * The change is visible in "session_delta" and therefore in "session_latest_v".
+     */
+    STREAM,
+    /**
+     * The change was merged into "session_main".
+     */
+    MERGE
+  }
+
+  /**
+   * @param stage to look at
+   * @param sessionIds sessions to look up
+   * @return the highest sequence number visible at the stage for each of the sessions found
+   * @throws RuntimeException if the sessions couldn't be looked up, the probe counts it as a
+   * failed poll
+   */
+  Map<String, Long> readSequences(Stage stage, Collection<String> sessionIds);
+}
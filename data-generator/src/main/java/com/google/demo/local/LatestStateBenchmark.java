@@ -0,0 +1,206 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo.local;
+
+import static com.google.demo.CommandLineUtil.getIntParameter;
+import static com.google.demo.Constants.DELETE_OP;
+import static com.google.demo.Constants.INSERT_OP;
+import static com.google.demo.Constants.UPDATE_OP;
+
+import com.google.demo.model.Session;
+import com.google.demo.model.Session.Status;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Compares the cost of querying "session_latest_v" with the cost of maintaining and querying the
+ * "session_latest" table as the delta table grows. Runs against the in-memory
+ * <code>LocalMirror</code>, no cloud resources are needed.
+ *
+ * Every step streams a batch of changes, then runs the same number of "dashboard" queries
+ * against the view and against the maintained table (which is refreshed once per step). A step
+ * stands for the time between refreshes, so the lookback of the refresh is given in steps.
+ */
+public class LatestStateBenchmark {
+
+  private static final String STEPS = "steps";
+  private static final String INSERTS_PER_STEP = "inserts_per_step";
+  private static final String UPDATE_PERCENT = "update_percent";
+  private static final String DELETE_PERCENT = "delete_percent";
+  private static final String QUERIES_PER_STEP = "queries_per_step";
+  private static final String LOOKBACK_STEPS = "lookback_steps";
+
+  private static class Parameters {
+
+    int steps;
+    int insertsPerStep;
+    int percentOfUpdatesPerStep;
+    int percentOfDeletesPerStep;
+    int queriesPerStep;
+    int lookbackSteps;
+  }
+
+  /**
+   * Main function of the benchmark.
+   *
+   * @param args benchmark arguments
+   */
+  public static void main(String[] args) {
+    Parameters params = getParameters(args);
+
+    LocalMirror mirror = new LocalMirror(params.lookbackSteps);
+    List<Session> liveSessions = new ArrayList<>();
+    Random random = new Random(0);
+    long sequence = 0;
+
+    System.out.println(String.format("%12s %18s %12s %18s %12s",
+        "delta_rows", "view_rows_scanned", "view_ms", "table_rows_scanned", "table_ms"));
+
+    for (int step = 0; step < params.steps; step++) {
+      for (int i = 0; i < params.insertsPerStep; i++) {
+        Session session = new Session();
+        liveSessions.add(session);
+        mirror.stream(LocalMirror.Row.of(session, ++sequence, INSERT_OP));
+      }
+      int updateCount = params.insertsPerStep * params.percentOfUpdatesPerStep / 100;
+      for (int i = 0; i < updateCount && !liveSessions.isEmpty(); i++) {
+        Session session = liveSessions.get(random.nextInt(liveSessions.size()));
+        if (session.getStatus() == Status.NEW) {
+          session.loggedIn("customer" + i);
+        } else if (session.getStatus() == Status.LOGGED_IN) {
+          session.logout();
+        }
+        mirror.stream(LocalMirror.Row.of(session, ++sequence, UPDATE_OP));
+      }
+      int deleteCount = params.insertsPerStep * params.percentOfDeletesPerStep / 100;
+      for (int i = 0; i < deleteCount && !liveSessions.isEmpty(); i++) {
+        Session session = liveSessions.remove(random.nextInt(liveSessions.size()));
+        mirror.stream(LocalMirror.Row.of(session, ++sequence, DELETE_OP));
+      }
+
+      long scannedBefore = mirror.getRowsScanned();
+      long startTime = System.nanoTime();
+      for (int i = 0; i < params.queriesPerStep; i++) {
+        mirror.queryLatestView();
+      }
+      long viewNanos = System.nanoTime() - startTime;
+      long viewRowsScanned = mirror.getRowsScanned() - scannedBefore;
+
+      scannedBefore = mirror.getRowsScanned();
+      startTime = System.nanoTime();
+      mirror.refreshLatest();
+      for (int i = 0; i < params.queriesPerStep; i++) {
+        mirror.queryLatestTable();
+      }
+      long tableNanos = System.nanoTime() - startTime;
+      long tableRowsScanned = mirror.getRowsScanned() - scannedBefore;
+
+      System.out.println(String.format("%12d %18d %12.1f %18d %12.1f",
+          mirror.getDeltaSize(), viewRowsScanned, viewNanos / 1e6,
+          tableRowsScanned, tableNanos / 1e6));
+    }
+  }
+
+  /**
+   * Extract and validate command line parameters.
+   *
+   * @param args
+   * @return parameters object with strongly typed parameters, exits if validation failed.
+   */
+  private static Parameters getParameters(String[] args) {
+    Options commandLineOptions = createCommandLineOptions();
+
+    Parameters result = new Parameters();
+    try {
+      CommandLine cmd = (new DefaultParser()).parse(commandLineOptions, args);
+      result.steps = getIntParameter(cmd, STEPS, 20);
+      result.insertsPerStep = getIntParameter(cmd, INSERTS_PER_STEP, 10_000);
+      result.percentOfUpdatesPerStep = getIntParameter(cmd, UPDATE_PERCENT, 20);
+      result.percentOfDeletesPerStep = getIntParameter(cmd, DELETE_PERCENT, 5);
+      result.queriesPerStep = getIntParameter(cmd, QUERIES_PER_STEP, 10);
+      // 90 minutes of lookback with a refresh every two minutes
+      result.lookbackSteps = getIntParameter(cmd, LOOKBACK_STEPS, 45);
+
+      return result;
+    } catch (ParseException e) {
+      new HelpFormatter().printHelp(
+          "java -cp target/data-generator-1.0-SNAPSHOT-shaded.jar "
+              + LatestStateBenchmark.class.getName(), commandLineOptions);
+      e.printStackTrace();
+      System.exit(-1);
+      return null;
+    }
+  }
+
+  /**
+   * @return available command line options
+   */
+  private static Options createCommandLineOptions() {
+    Options options = new Options();
+
+    options.addOption(
+        Option.builder().longOpt(STEPS)
+            .desc("Number of times the delta grows")
+            .hasArg()
+            .type(Number.class)
+            .argName("number").build());
+
+    options.addOption(
+        Option.builder().longOpt(INSERTS_PER_STEP)
+            .desc("Number of inserts per step")
+            .hasArg()
+            .type(Number.class)
+            .argName("number").build());
+
+    options.addOption(
+        Option.builder().longOpt(UPDATE_PERCENT)
+            .desc("Percentage of updates relative to inserts")
+            .hasArg()
+            .type(Number.class)
+            .argName("number").build());
+
+    options.addOption(
+        Option.builder().longOpt(DELETE_PERCENT)
+            .desc("Percentage of deletes relative to inserts")
+            .hasArg()
+            .type(Number.class)
+            .argName("number").build());
+
+    options.addOption(
+        Option.builder().longOpt(QUERIES_PER_STEP)
+            .desc("Number of queries of the latest state per step")
+            .hasArg()
+            .type(Number.class)
+            .argName("number").build());
+
+    options.addOption(
+        Option.builder().longOpt(LOOKBACK_STEPS)
+            .desc("Number of steps before the previous refresh read again by a refresh")
+            .hasArg()
+            .type(Number.class)
+            .argName("number").build());
+
+    return options;
+  }
+}
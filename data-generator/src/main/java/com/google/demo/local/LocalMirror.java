@@ -0,0 +1,370 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo.local;
+
+import static com.google.demo.Constants.DELETE_OP;
+import static com.google.demo.Constants.INSERT_OP;
+import static com.google.demo.Constants.UPDATE_OP;
+
+import com.google.demo.SessionSink;
+import com.google.demo.bigquery.ConversionUtil;
+import com.google.demo.lag.MirrorReader;
+import com.google.demo.model.Session;
+import com.google.demo.model.SessionBatch;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * In-memory stand-in for the BigQuery side of the demo: "session_main", "session_delta", the
+ * "session_latest_v" view and the incrementally maintained "session_latest" table.
+ *
+ * The operations follow the SQL used against BigQuery (see merge-session.sql, bigquery.tf and
+ * LatestStateService) and count the rows they read, which is a reasonable proxy for the bytes
+ * BigQuery would scan.
+ */
+public class LocalMirror implements MirrorReader, SessionSink {
+
+  /**
+   * A row of any of the mirrored tables. Rows of "session_main" and "session_latest" always
+   * have the insert operation and the sequence number of the last applied change.
+   */
+  public static class Row {
+
+    private final String sessionId;
+    private final String status;
+    private final String customerKey;
+    private final Instant start;
+    private final Instant end;
+    private final long sequence;
+    private final String operation;
+
+    public Row(String sessionId, String status, String customerKey, Instant start,
+        Instant end, long sequence, String operation) {
+      this.sessionId = sessionId;
+      this.status = status;
+      this.customerKey = customerKey;
+      this.start = start;
+      this.end = end;
+      this.sequence = sequence;
+      this.operation = operation;
+    }
+
+    /**
+     * @return change event capturing the current state of the session
+     */
+    public static Row of(Session session, long sequence, String operation) {
+      return new Row(session.getSessionId(), session.getStatus().name(),
+          session.getCustomerKey(), session.getStart(), session.getEnd(), sequence, operation);
+    }
+
+    /**
+     * @return row of the change at the index of the batch
+     */
+    public static Row of(SessionBatch batch, int index) {
+      return new Row(batch.getSessionId(index), batch.getStatus(index).name(),
+          batch.getCustomerKey(index), toInstant(batch.getStartMicros(index)),
+          toInstant(batch.getEndMicros(index)), batch.getSequence(index),
+          batch.getOperation(index));
+    }
+
+    private static Instant toInstant(long micros) {
+      return micros == SessionBatch.NO_TIMESTAMP ? null : ConversionUtil.convertToInstant(micros);
+    }
+
+    private Row withOperation(String operation) {
+      return new Row(sessionId, status, customerKey, start, end, sequence, operation);
+    }
+
+    public String getSessionId() {
+      return sessionId;
+    }
+
+    public String getStatus() {
+      return status;
+    }
+
+    public String getCustomerKey() {
+      return customerKey;
+    }
+
+    public Instant getStart() {
+      return start;
+    }
+
+    public Instant getEnd() {
+      return end;
+    }
+
+    public long getSequence() {
+      return sequence;
+    }
+
+    public String getOperation() {
+      return operation;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Row row = (Row) o;
+      return sequence == row.sequence
+          && sessionId.equals(row.sessionId)
+          && Objects.equals(status, row.status)
+          && Objects.equals(customerKey, row.customerKey)
+          && Objects.equals(start, row.start)
+          && Objects.equals(end, row.end)
+          && Objects.equals(operation, row.operation);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(sessionId, sequence);
+    }
+
+    @Override
+    public String toString() {
+      return sessionId + "/" + operation + "/" + sequence + "/" + status;
+    }
+  }
+
+  private final Map<String, Row> main = new HashMap<>();
+  private final List<Row> delta = new ArrayList<>();
+  private final Map<String, Row> latest = new HashMap<>();
+  // Highest sequence number streamed per session, answers the lag probe's lookups
+  private final Map<String, Long> deltaSequences = new HashMap<>();
+  // Number of refreshes of "latest" standing in for the lookback of LatestStateService
+  private final int latestLookbackRefreshes;
+  // Number of delta rows at each refresh within the lookback, oldest first
+  private final Deque<Integer> latestRefreshPositions = new ArrayDeque<>();
+  // Number of delta rows already applied to "latest"; delta rows arrive in sequence order
+  private int latestWatermark;
+  private boolean latestRefreshed;
+  // Number of delta rows already merged into "main"
+  private int mergeWatermark;
+  private long rowsScanned;
+
+  /**
+   * Creates a mirror whose "session_latest" refresh reads only the delta rows added since the
+   * previous refresh.
+   */
+  public LocalMirror() {
+    this(0);
+  }
+
+  /**
+   * @param latestLookbackRefreshes number of refreshes before the previous one whose delta rows
+   *     are read again by a refresh of "session_latest", the lookback of LatestStateService
+   *     divided by the time between refreshes
+   */
+  public LocalMirror(int latestLookbackRefreshes) {
+    this.latestLookbackRefreshes = latestLookbackRefreshes;
+  }
+
+  /**
+   * Streams a change event into "session_delta".
+   */
+  public synchronized void stream(Row row) {
+    delta.add(row);
+    deltaSequences.merge(row.sessionId, row.sequence, Math::max);
+  }
+
+  /**
+   * Streams all the changes of the batch into "session_delta".
+   */
+  @Override
+  public synchronized void write(SessionBatch batch) {
+    for (int i = 0; i < batch.size(); i++) {
+      stream(Row.of(batch, i));
+    }
+  }
+
+  /**
+   * Merges "session_delta" into "session_main" the same way merge-session.sql does.
+   */
+  public synchronized void merge() {
+    rowsScanned += main.size();
+    for (Row change : latestPerSession(delta, 0).values()) {
+      Row current = main.get(change.sessionId);
+      if (current == null) {
+        if (change.operation.equals(INSERT_OP) || change.operation.equals(UPDATE_OP)) {
+          main.put(change.sessionId, change.withOperation(INSERT_OP));
+        }
+      } else if (change.operation.equals(DELETE_OP)) {
+        main.remove(change.sessionId);
+      } else if (change.operation.equals(UPDATE_OP) && current.sequence < change.sequence) {
+        main.put(change.sessionId, change.withOperation(INSERT_OP));
+      }
+    }
+    mergeWatermark = delta.size();
+  }
+
+  /**
+   * Removes the delta rows which were merged and, once "session_latest" is maintained, applied
+   * to it - the same rows SessionDeltaCompactor drops.
+   *
+   * @return number of removed rows
+   */
+  public synchronized int compact() {
+    int removed = latestRefreshed ? Math.min(mergeWatermark, latestWatermark) : mergeWatermark;
+    delta.subList(0, removed).clear();
+    mergeWatermark -= removed;
+    latestWatermark = Math.max(latestWatermark - removed, 0);
+    for (int i = latestRefreshPositions.size(); i > 0; i--) {
+      latestRefreshPositions.addLast(Math.max(latestRefreshPositions.removeFirst() - removed, 0));
+    }
+    return removed;
+  }
+
+  /**
+   * Evaluates "session_latest_v": the latest row of every session across "session_main" and
+   * the whole "session_delta", excluding deleted sessions.
+   *
+   * @return rows keyed by session id
+   */
+  public synchronized Map<String, Row> queryLatestView() {
+    rowsScanned += main.size();
+    Map<String, Row> result = new HashMap<>(main);
+    for (Row change : latestPerSession(delta, 0).values()) {
+      Row current = result.get(change.sessionId);
+      if (current == null || current.sequence < change.sequence) {
+        result.put(change.sessionId, change);
+      }
+    }
+    result.values().removeIf(row -> row.operation.equals(DELETE_OP));
+    result.replaceAll((sessionId, row) -> row.withOperation(INSERT_OP));
+    return result;
+  }
+
+  /**
+   * Applies the delta rows added since the previous refresh to "session_latest" the same way
+   * LatestStateService does: the rows of the lookback are read again and skipped by the
+   * sequence number check, and the whole table is read by the merge. The first refresh rebuilds
+   * the table from the view.
+   */
+  public synchronized void refreshLatest() {
+    if (!latestRefreshed) {
+      latest.putAll(queryLatestView());
+      latestWatermark = delta.size();
+      latestRefreshPositions.addLast(latestWatermark);
+      latestRefreshed = true;
+      return;
+    }
+    rowsScanned += latest.size();
+    for (Row change : latestPerSession(delta, latestRefreshPositions.getFirst()).values()) {
+      Row current = latest.get(change.sessionId);
+      if (current == null) {
+        if (change.operation.equals(INSERT_OP) || change.operation.equals(UPDATE_OP)) {
+          latest.put(change.sessionId, change.withOperation(INSERT_OP));
+        }
+      } else if (current.sequence < change.sequence) {
+        if (change.operation.equals(DELETE_OP)) {
+          latest.remove(change.sessionId);
+        } else {
+          latest.put(change.sessionId, change.withOperation(INSERT_OP));
+        }
+      }
+    }
+    latestWatermark = delta.size();
+    latestRefreshPositions.addLast(latestWatermark);
+    if (latestRefreshPositions.size() > latestLookbackRefreshes + 1) {
+      latestRefreshPositions.removeFirst();
+    }
+  }
+
+  /**
+   * Reads the maintained "session_latest" table.
+   *
+   * @return rows keyed by session id
+   */
+  public synchronized Map<String, Row> queryLatestTable() {
+    rowsScanned += latest.size();
+    return new HashMap<>(latest);
+  }
+
+  /**
+   * @return copy of "session_main" keyed by session id
+   */
+  public synchronized Map<String, Row> queryMain() {
+    rowsScanned += main.size();
+    return new HashMap<>(main);
+  }
+
+  /**
+   * Lookups of the lag probe, they are not included in the rows scanned.
+   */
+  @Override
+  public synchronized Map<String, Long> readSequences(Stage stage,
+      Collection<String> sessionIds) {
+    Map<String, Long> result = new HashMap<>();
+    for (String sessionId : sessionIds) {
+      if (stage == Stage.STREAM) {
+        Long sequence = deltaSequences.get(sessionId);
+        if (sequence != null) {
+          result.put(sessionId, sequence);
+        }
+      } else {
+        Row row = main.get(sessionId);
+        if (row != null) {
+          result.put(sessionId, row.sequence);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return number of rows in "session_delta"
+   */
+  public synchronized int getDeltaSize() {
+    return delta.size();
+  }
+
+  /**
+   * @return total number of rows read by all the operations so far
+   */
+  public synchronized long getRowsScanned() {
+    return rowsScanned;
+  }
+
+  /**
+   * @return latest change of every session among the delta rows starting at <code>from</code>
+   */
+  private Map<String, Row> latestPerSession(List<Row> rows, int from) {
+    Map<String, Row> result = new HashMap<>();
+    for (int i = from; i < rows.size(); i++) {
+      Row row = rows.get(i);
+      Row current = result.get(row.sessionId);
+      if (current == null || current.sequence < row.sequence) {
+        result.put(row.sessionId, row);
+      }
+    }
+    rowsScanned += rows.size() - from;
+    return result;
+  }
+}
@@ -17,11 +17,8 @@
 package com.google.demo.model;
 
 import com.google.demo.Constants;
-import com.google.demo.bigquery.ConversionUtil;
 import com.google.demo.bigquery.Struct;
 import java.time.Instant;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -31,41 +28,57 @@ public class Session {
 
   public enum Status {NEW, ABANDONED, LOGGED_IN, LOGGED_OUT}
 
+  // Bits of the changed fields mask
+  public static final int STATUS_FIELD = 1;
+  public static final int CUSTOMER_KEY_FIELD = 1 << 1;
+  public static final int START_FIELD = 1 << 2;
+  public static final int END_FIELD = 1 << 3;
+
   private final String sessionId;
   private Status status;
   private String customerKey;
   private final Instant start;
   private Instant end;
+  // Fields changed since the last call to clearChangedFields()
+  private int changedFields;
 
   public Session() {
     sessionId = UUID.randomUUID().toString();
     status = Status.NEW;
     start = Instant.now();
+    changedFields = STATUS_FIELD | START_FIELD;
   }
 
   public void loggedIn(String customerKey) {
     status = Status.LOGGED_IN;
     this.customerKey = customerKey;
+    changedFields |= STATUS_FIELD | CUSTOMER_KEY_FIELD;
   }
 
   public void abandon() {
     status = Status.ABANDONED;
     end = Instant.now();
+    changedFields |= STATUS_FIELD | END_FIELD;
   }
 
   public void logout() {
     status = Status.LOGGED_OUT;
     end = Instant.now();
+    changedFields |= STATUS_FIELD | END_FIELD;
   }
 
-  public Map<String, Object> toBigQueryRow() {
-    Map<String, Object> result = new HashMap<>();
-    result.put(Constants.SESSION_ID_COLUMN, sessionId);
-    result.put(Constants.STATUS_COLUMN, status.name());
-    result.put(Constants.CUSTOMER_KEY_COLUMN, customerKey);
-    result.put(Constants.START_COLUMN, ConversionUtil.convertToTimestamp(start));
-    result.put(Constants.END_COLUMN, ConversionUtil.convertToTimestamp(end));
-    return result;
+  /**
+   * @return mask of the fields changed since the session was last persisted
+   */
+  public int getChangedFields() {
+    return changedFields;
+  }
+
+  /**
+   * Marks the current state of the session as persisted.
+   */
+  public void clearChangedFields() {
+    changedFields = 0;
   }
 
   public Struct toBigQueryStruct() {
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo.model;
+
+import static com.google.demo.Constants.DELETE_OP;
+import static com.google.demo.Constants.INSERT_OP;
+import static com.google.demo.Constants.UPDATE_OP;
+
+import com.google.demo.bigquery.ConversionUtil;
+import com.google.demo.model.Session.Status;
+import java.util.Arrays;
+
+/**
+ * Columnar buffer of the session changes of a batch. The generator captures every change once
+ * and the sinks encode their writes from the columns.
+ *
+ * Statuses and operation types are stored as codes of small dictionaries and timestamps as
+ * microseconds since epoch. Text timestamps are formatted at most once per change, when a sink
+ * first needs them, and shared by the sinks. The buffer is meant to be cleared and reused for
+ * every batch - the columns only grow until they fit the largest batch, so filling the buffer
+ * doesn't allocate.
+ */
+public class SessionBatch {
+
+  /**
+   * Value of the timestamp columns when the timestamp is not set.
+   */
+  public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+  private static final Status[] STATUSES = Status.values();
+  private static final String[] OPERATIONS = {INSERT_OP, UPDATE_OP, DELETE_OP};
+  private static final byte DELETE_CODE = 2;
+
+  private int size;
+  private Session[] sessions;
+  private String[] sessionIds;
+  private byte[] statuses;
+  private String[] customerKeys;
+  private long[] startMicros;
+  private long[] endMicros;
+  private String[] startTimestamps;
+  private String[] endTimestamps;
+  private int[] changedFields;
+  private byte[] operations;
+  private long[] sequences;
+  private long[] generatedMicros;
+
+  /**
+   * @param initialCapacity expected number of changes per batch
+   */
+  public SessionBatch(int initialCapacity) {
+    int capacity = Math.max(initialCapacity, 1);
+    sessions = new Session[capacity];
+    sessionIds = new String[capacity];
+    statuses = new byte[capacity];
+    customerKeys = new String[capacity];
+    startMicros = new long[capacity];
+    endMicros = new long[capacity];
+    startTimestamps = new String[capacity];
+    endTimestamps = new String[capacity];
+    changedFields = new int[capacity];
+    operations = new byte[capacity];
+    sequences = new long[capacity];
+    generatedMicros = new long[capacity];
+  }
+
+  /**
+   * Captures the current state of the session. The changed fields of the session are kept until
+   * <code>markPersisted()</code> is called.
+   *
+   * @param session changed session
+   * @param operation one of the operation types, e.g. <code>Constants.INSERT_OP</code>
+   * @param sequence sequence number of the change
+   * @param generatedMicros time the change was generated, in microseconds since epoch
+   * @return index of the change in the batch
+   */
+  public int add(Session session, String operation, long sequence, long generatedMicros) {
+    if (size == sessionIds.length) {
+      grow();
+    }
+    int index = size++;
+    sessions[index] = session;
+    sessionIds[index] = session.getSessionId();
+    statuses[index] = (byte) session.getStatus().ordinal();
+    customerKeys[index] = session.getCustomerKey();
+    startMicros[index] = session.getStart() == null ? NO_TIMESTAMP
+        : ConversionUtil.convertToMicros(session.getStart());
+    endMicros[index] = session.getEnd() == null ? NO_TIMESTAMP
+        : ConversionUtil.convertToMicros(session.getEnd());
+    startTimestamps[index] = null;
+    endTimestamps[index] = null;
+    changedFields[index] = session.getChangedFields();
+    operations[index] = operationCode(operation);
+    sequences[index] = sequence;
+    this.generatedMicros[index] = generatedMicros;
+    return index;
+  }
+
+  /**
+   * Clears the changed fields of the sessions of the batch. To be called once the batch was
+   * written successfully - the sessions of a failed write keep their changed fields, so their
+   * next change writes them again.
+   */
+  public void markPersisted() {
+    for (int i = 0; i < size; i++) {
+      sessions[i].clearChangedFields();
+    }
+  }
+
+  /**
+   * Empties the batch, keeping the allocated columns.
+   */
+  public void clear() {
+    // Drop the references to let the past sessions be collected
+    Arrays.fill(sessions, 0, size, null);
+    Arrays.fill(sessionIds, 0, size, null);
+    Arrays.fill(customerKeys, 0, size, null);
+    Arrays.fill(startTimestamps, 0, size, null);
+    Arrays.fill(endTimestamps, 0, size, null);
+    size = 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public String getSessionId(int index) {
+    return sessionIds[index];
+  }
+
+  public Status getStatus(int index) {
+    return STATUSES[statuses[index]];
+  }
+
+  public String getCustomerKey(int index) {
+    return customerKeys[index];
+  }
+
+  /**
+   * @return start in microseconds since epoch or <code>NO_TIMESTAMP</code>
+   */
+  public long getStartMicros(int index) {
+    return startMicros[index];
+  }
+
+  /**
+   * @return end in microseconds since epoch or <code>NO_TIMESTAMP</code>
+   */
+  public long getEndMicros(int index) {
+    return endMicros[index];
+  }
+
+  /**
+   * @return start formatted by <code>ConversionUtil.convertToTimestamp</code> or null if not set
+   */
+  public String getStartTimestamp(int index) {
+    if (startTimestamps[index] == null && startMicros[index] != NO_TIMESTAMP) {
+      startTimestamps[index] = ConversionUtil.convertToTimestamp(startMicros[index]);
+    }
+    return startTimestamps[index];
+  }
+
+  /**
+   * @return end formatted by <code>ConversionUtil.convertToTimestamp</code> or null if not set
+   */
+  public String getEndTimestamp(int index) {
+    if (endTimestamps[index] == null && endMicros[index] != NO_TIMESTAMP) {
+      endTimestamps[index] = ConversionUtil.convertToTimestamp(endMicros[index]);
+    }
+    return endTimestamps[index];
+  }
+
+  /**
+   * @return mask of the fields changed since the session was last persisted, see
+   * <code>Session.STATUS_FIELD</code> and others
+   */
+  public int getChangedFields(int index) {
+    return changedFields[index];
+  }
+
+  public String getOperation(int index) {
+    return OPERATIONS[operations[index]];
+  }
+
+  public boolean isDelete(int index) {
+    return operations[index] == DELETE_CODE;
+  }
+
+  public long getSequence(int index) {
+    return sequences[index];
+  }
+
+  public long getGeneratedMicros(int index) {
+    return generatedMicros[index];
+  }
+
+  private static byte operationCode(String operation) {
+    for (byte code = 0; code < OPERATIONS.length; code++) {
+      if (OPERATIONS[code].equals(operation)) {
+        return code;
+      }
+    }
+    throw new IllegalArgumentException("Unknown operation " + operation);
+  }
+
+  private void grow() {
+    int capacity = sessionIds.length * 2;
+    sessions = Arrays.copyOf(sessions, capacity);
+    sessionIds = Arrays.copyOf(sessionIds, capacity);
+    statuses = Arrays.copyOf(statuses, capacity);
+    customerKeys = Arrays.copyOf(customerKeys, capacity);
+    startMicros = Arrays.copyOf(startMicros, capacity);
+    endMicros = Arrays.copyOf(endMicros, capacity);
+    startTimestamps = Arrays.copyOf(startTimestamps, capacity);
+    endTimestamps = Arrays.copyOf(endTimestamps, capacity);
+    changedFields = Arrays.copyOf(changedFields, capacity);
+    operations = Arrays.copyOf(operations, capacity);
+    sequences = Arrays.copyOf(sequences, capacity);
+    generatedMicros = Arrays.copyOf(generatedMicros, capacity);
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo.scenario;
+
+import com.google.demo.lag.LagProbe.LagStatistics;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Results of a phase of a scenario run against a sink, or of the whole run (phase "all").
+ */
+public class PhaseResult {
+
+  private final String scenario;
+  private final String sink;
+  private final String phase;
+  private final double seconds;
+  private final long events;
+  private final LagStatistics writeLatency;
+  private final LagStatistics streamLag;
+  private final LagStatistics mergeLag;
+  private final int merges;
+  private final long mergeRowsScanned;
+  private final long mergeBytesProcessed;
+  private final long mergeMillis;
+
+  /**
+   * @param scenario name of the scenario
+   * @param sink name of the sink
+   * @param phase name of the phase
+   * @param seconds length of the phase
+   * @param events number of change events generated
+   * @param writeLatency time to write the batches to the sink, in microseconds
+   * @param streamLag time until the changes are visible in the delta table, null if not
+   * measured
+   * @param mergeLag time until the changes are merged into the main table, null if not measured
+   * @param merges number of merges, -1 if not measured
+   * @param mergeRowsScanned number of rows read by the merges, -1 if not measured
+   * @param mergeBytesProcessed number of bytes processed by the merges, -1 if not measured
+   * @param mergeMillis total duration of the merges, -1 if not measured
+   */
+  public PhaseResult(String scenario, String sink, String phase, double seconds, long events,
+      LagStatistics writeLatency, LagStatistics streamLag, LagStatistics mergeLag, int merges,
+      long mergeRowsScanned, long mergeBytesProcessed, long mergeMillis) {
+    this.scenario = scenario;
+    this.sink = sink;
+    this.phase = phase;
+    this.seconds = seconds;
+    this.events = events;
+    this.writeLatency = writeLatency;
+    this.streamLag = streamLag;
+    this.mergeLag = mergeLag;
+    this.merges = merges;
+    this.mergeRowsScanned = mergeRowsScanned;
+    this.mergeBytesProcessed = mergeBytesProcessed;
+    this.mergeMillis = mergeMillis;
+  }
+
+  public String getScenario() {
+    return scenario;
+  }
+
+  public String getSink() {
+    return sink;
+  }
+
+  public String getPhase() {
+    return phase;
+  }
+
+  public long getEvents() {
+    return events;
+  }
+
+  public double getEventsPerSecond() {
+    return seconds == 0 ? 0 : events / seconds;
+  }
+
+  /**
+   * Writes the results as CSV, the values which weren't measured are empty.
+   */
+  public static void writeCsv(List<PhaseResult> results, PrintWriter writer) {
+    if (results.isEmpty()) {
+      return;
+    }
+    writer.println(String.join(",", results.get(0).toValues().keySet()));
+    for (PhaseResult result : results) {
+      List<String> values = new ArrayList<>();
+      for (Object value : result.toValues().values()) {
+        values.add(value == null ? "" : value.toString());
+      }
+      writer.println(String.join(",", values));
+    }
+    writer.flush();
+  }
+
+  /**
+   * Writes the results as a JSON array of objects, the values which weren't measured are null.
+   */
+  public static void writeJson(List<PhaseResult> results, PrintWriter writer) {
+    writer.println("[");
+    for (int i = 0; i < results.size(); i++) {
+      StringBuilder line = new StringBuilder("  {");
+      boolean first = true;
+      for (Map.Entry<String, Object> entry : results.get(i).toValues().entrySet()) {
+        if (!first) {
+          line.append(", ");
+        }
+        first = false;
+        line.append('"').append(entry.getKey()).append("\": ");
+        Object value = entry.getValue();
+        if (value != null && isText(entry.getKey())) {
+          line.append('"').append(escapeJson((String) value)).append('"');
+        } else {
+          line.append(value == null ? "null" : value.toString());
+        }
+      }
+      writer.println(line.append(i < results.size() - 1 ? "}," : "}"));
+    }
+    writer.println("]");
+    writer.flush();
+  }
+
+  /**
+   * @return result values by column name, in the order of the columns
+   */
+  private Map<String, Object> toValues() {
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("scenario", scenario);
+    result.put("sink", sink);
+    result.put("phase", phase);
+    result.put("seconds", String.format(Locale.ROOT, "%.1f", seconds));
+    result.put("events", events);
+    result.put("events_per_second", String.format(Locale.ROOT, "%.1f", getEventsPerSecond()));
+    putPercentiles(result, "write", "us", writeLatency);
+    putPercentiles(result, "stream_lag", "ms", streamLag);
+    putSampleCounts(result, "stream_lag", streamLag);
+    putPercentiles(result, "merge_lag", "ms", mergeLag);
+    putSampleCounts(result, "merge_lag", mergeLag);
+    result.put("merges", merges < 0 ? null : merges);
+    result.put("merge_rows_scanned", mergeRowsScanned < 0 ? null : mergeRowsScanned);
+    result.put("merge_bytes_processed", mergeBytesProcessed < 0 ? null : mergeBytesProcessed);
+    result.put("merge_ms", mergeMillis < 0 ? null : mergeMillis);
+    return result;
+  }
+
+  private static void putPercentiles(Map<String, Object> values, String prefix, String unit,
+      LagStatistics statistics) {
+    values.put(prefix + "_p50_" + unit, statistics == null ? null : statistics.getP50());
+    values.put(prefix + "_p90_" + unit, statistics == null ? null : statistics.getP90());
+    values.put(prefix + "_p99_" + unit, statistics == null ? null : statistics.getP99());
+    values.put(prefix + "_max_" + unit, statistics == null ? null : statistics.getMax());
+  }
+
+  /**
+   * Samples which expired, were still pending or were dropped aren't included in the
+   * percentiles, a high number of them means the percentiles are biased low.
+   */
+  private static void putSampleCounts(Map<String, Object> values, String prefix,
+      LagStatistics statistics) {
+    values.put(prefix + "_samples", statistics == null ? null : statistics.getSamples());
+    values.put(prefix + "_expired", statistics == null ? null : statistics.getExpired());
+    values.put(prefix + "_pending", statistics == null ? null : statistics.getPending());
+    values.put(prefix + "_dropped", statistics == null ? null : statistics.getDropped());
+  }
+
+  /**
+   * @return whether the value of the column is text, the other values are numbers
+   */
+  private static boolean isText(String key) {
+    return key.equals("scenario") || key.equals("sink") || key.equals("phase");
+  }
+
+  private static String escapeJson(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"");
+  }
+}
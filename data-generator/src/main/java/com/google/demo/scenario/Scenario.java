@@ -0,0 +1,259 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo.scenario;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Workload made of consecutive phases, e.g. warmup, ramp, steady state and spike, loaded from a
+ * properties file:
+ * <pre>
+ * phases=warmup,ramp
+ * merge_interval=60
+ * warmup.duration=30
+ * warmup.rate=1000
+ * ramp.duration=60
+ * ramp.rate=1000
+ * ramp.end_rate=5000
+ * ramp.update_percent=40
+ * ramp.hot_key_percent=50
+ * </pre>
+ * See <code>Phase</code> for the properties of the phases.
+ */
+public class Scenario {
+
+  private static final String PHASES = "phases";
+  private static final String MERGE_INTERVAL = "merge_interval";
+  private static final String LAG_SAMPLE_INTERVAL = "lag_sample_interval";
+
+  /**
+   * Part of the scenario with a constant or linearly changing rate and a constant mix of
+   * changes.
+   */
+  public static class Phase {
+
+    private static final String DURATION = "duration";
+    private static final String RATE = "rate";
+    private static final String END_RATE = "end_rate";
+    private static final String INSERTS_PER_BATCH = "inserts_per_batch";
+    private static final String UPDATE_PERCENT = "update_percent";
+    private static final String DELETE_PERCENT = "delete_percent";
+    private static final String HOT_KEY_PERCENT = "hot_key_percent";
+
+    private final String name;
+    private final int durationInSeconds;
+    private final int rate;
+    private final int endRate;
+    private final int insertsPerBatch;
+    private final int percentOfUpdatesPerBatch;
+    private final int percentOfDeletesPerBatch;
+    private final int percentOfHotKeyUpdates;
+
+    /**
+     * @param name of the phase
+     * @param durationInSeconds length of the phase
+     * @param rate inserts per second at the start of the phase. If both rates are 0 the phase
+     * runs as fast as possible
+     * @param endRate inserts per second at the end of the phase
+     * @param insertsPerBatch number of inserts per batch
+     * @param percentOfUpdatesPerBatch number of updates as a percentage of the inserts
+     * @param percentOfDeletesPerBatch number of deletes as a percentage of the inserts
+     * @param percentOfHotKeyUpdates percentage of the updates which go to the hot sessions, see
+     * <code>WorkloadGenerator</code>; 0 spreads the updates evenly
+     */
+    public Phase(String name, int durationInSeconds, int rate, int endRate, int insertsPerBatch,
+        int percentOfUpdatesPerBatch, int percentOfDeletesPerBatch, int percentOfHotKeyUpdates) {
+      this.name = name;
+      this.durationInSeconds = durationInSeconds;
+      this.rate = rate;
+      this.endRate = endRate;
+      this.insertsPerBatch = insertsPerBatch;
+      this.percentOfUpdatesPerBatch = percentOfUpdatesPerBatch;
+      this.percentOfDeletesPerBatch = percentOfDeletesPerBatch;
+      this.percentOfHotKeyUpdates = percentOfHotKeyUpdates;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public int getDurationInSeconds() {
+      return durationInSeconds;
+    }
+
+    public int getInsertsPerBatch() {
+      return insertsPerBatch;
+    }
+
+    public int getPercentOfUpdatesPerBatch() {
+      return percentOfUpdatesPerBatch;
+    }
+
+    public int getPercentOfDeletesPerBatch() {
+      return percentOfDeletesPerBatch;
+    }
+
+    public int getPercentOfHotKeyUpdates() {
+      return percentOfHotKeyUpdates;
+    }
+
+    /**
+     * @return false if the phase runs as fast as possible, i.e. both its rates are 0
+     */
+    public boolean isPaced() {
+      return rate > 0 || endRate > 0;
+    }
+
+    /**
+     * @param elapsedSeconds time since the start of the phase
+     * @return target inserts per second at the time
+     */
+    public double getRate(double elapsedSeconds) {
+      if (durationInSeconds == 0) {
+        return rate;
+      }
+      double progress = Math.min(elapsedSeconds / durationInSeconds, 1);
+      return rate + (endRate - rate) * progress;
+    }
+
+    /**
+     * @param elapsedSeconds time since the start of the phase
+     * @return target number of inserts from the start of the phase until the time
+     */
+    public double getInserts(double elapsedSeconds) {
+      double seconds = Math.min(elapsedSeconds, durationInSeconds);
+      // Area under the linear rate
+      return (rate + getRate(seconds)) / 2 * seconds;
+    }
+  }
+
+  private final String name;
+  private final int mergeIntervalInSeconds;
+  private final int lagSampleInterval;
+  private final List<Phase> phases;
+
+  /**
+   * @param name of the scenario
+   * @param mergeIntervalInSeconds pause between merges of the delta table, 0 for no merges
+   * @param lagSampleInterval one in this many inserts and updates is sampled to measure the
+   * replication lag
+   * @param phases of the scenario
+   */
+  public Scenario(String name, int mergeIntervalInSeconds, int lagSampleInterval,
+      List<Phase> phases) {
+    this.name = name;
+    this.mergeIntervalInSeconds = mergeIntervalInSeconds;
+    this.lagSampleInterval = lagSampleInterval;
+    this.phases = Collections.unmodifiableList(new ArrayList<>(phases));
+  }
+
+  /**
+   * Loads the scenario from a properties file, the name of the scenario is the file name
+   * without the extension.
+   */
+  public static Scenario load(Path path) throws IOException {
+    Properties properties = new Properties();
+    try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+      properties.load(reader);
+    }
+    String fileName = path.getFileName().toString();
+    int extension = fileName.lastIndexOf('.');
+    return parse(extension > 0 ? fileName.substring(0, extension) : fileName, properties);
+  }
+
+  /**
+   * @param name of the scenario
+   * @param properties scenario definition
+   * @return parsed scenario
+   * @throws IllegalArgumentException if the definition is invalid
+   */
+  public static Scenario parse(String name, Properties properties) {
+    String phaseNames = properties.getProperty(PHASES);
+    if (phaseNames == null || phaseNames.trim().isEmpty()) {
+      throw new IllegalArgumentException("Scenario " + name + " doesn't define any " + PHASES);
+    }
+
+    List<Phase> phases = new ArrayList<>();
+    for (String phaseName : phaseNames.split(",")) {
+      phaseName = phaseName.trim();
+      String prefix = phaseName + ".";
+      int rate = getInt(properties, prefix + Phase.RATE, 0);
+      int percentOfHotKeyUpdates = getInt(properties, prefix + Phase.HOT_KEY_PERCENT, 0);
+      if (percentOfHotKeyUpdates > 100) {
+        throw new IllegalArgumentException(prefix + Phase.HOT_KEY_PERCENT
+            + " must not be above 100: " + percentOfHotKeyUpdates);
+      }
+      phases.add(new Phase(phaseName,
+          getRequiredInt(properties, prefix + Phase.DURATION),
+          rate,
+          getInt(properties, prefix + Phase.END_RATE, rate),
+          getInt(properties, prefix + Phase.INSERTS_PER_BATCH, 500),
+          getInt(properties, prefix + Phase.UPDATE_PERCENT, 20),
+          getInt(properties, prefix + Phase.DELETE_PERCENT, 5),
+          percentOfHotKeyUpdates));
+    }
+    return new Scenario(name, getInt(properties, MERGE_INTERVAL, 60),
+        getInt(properties, LAG_SAMPLE_INTERVAL, 100), phases);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getMergeIntervalInSeconds() {
+    return mergeIntervalInSeconds;
+  }
+
+  public int getLagSampleInterval() {
+    return lagSampleInterval;
+  }
+
+  public List<Phase> getPhases() {
+    return phases;
+  }
+
+  private static int getRequiredInt(Properties properties, String key) {
+    if (properties.getProperty(key) == null) {
+      throw new IllegalArgumentException("Missing " + key);
+    }
+    return getInt(properties, key, 0);
+  }
+
+  private static int getInt(Properties properties, String key, int defaultValue) {
+    String value = properties.getProperty(key);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      int result = Integer.parseInt(value.trim());
+      if (result < 0) {
+        throw new IllegalArgumentException(key + " must not be negative: " + value);
+      }
+      return result;
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid " + key + ": " + value, e);
+    }
+  }
+}
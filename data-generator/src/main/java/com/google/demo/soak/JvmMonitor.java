@@ -0,0 +1,210 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo.soak;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Collects garbage collection and allocation statistics of the JVM through the JMX beans.
+ *
+ * Every garbage collection is reported by a notification of its collector, which carries the
+ * duration of the collection and the heap usage after it. Only the stop-the-world collections are
+ * counted; the concurrent cycles, e.g. of ZGC or Shenandoah, run alongside the application and
+ * only contribute the heap usage after them. The allocations are those of the thread which
+ * created the monitor, the thread running the workload.
+ */
+public class JvmMonitor implements NotificationListener, AutoCloseable {
+
+  /**
+   * Statistics of the time between two calls to <code>collect()</code>.
+   */
+  public static class JvmStatistics {
+
+    private final long allocatedBytes;
+    private final int gcCount;
+    private final long gcMillis;
+    private final long maxGcMillis;
+    private final long heapAfterGcBytes;
+
+    JvmStatistics(long allocatedBytes, int gcCount, long gcMillis, long maxGcMillis,
+        long heapAfterGcBytes) {
+      this.allocatedBytes = allocatedBytes;
+      this.gcCount = gcCount;
+      this.gcMillis = gcMillis;
+      this.maxGcMillis = maxGcMillis;
+      this.heapAfterGcBytes = heapAfterGcBytes;
+    }
+
+    /**
+     * @return bytes allocated by the monitored thread or -1 if the JVM doesn't measure it
+     */
+    public long getAllocatedBytes() {
+      return allocatedBytes;
+    }
+
+    /**
+     * @return number of stop-the-world garbage collections
+     */
+    public int getGcCount() {
+      return gcCount;
+    }
+
+    /**
+     * @return total duration of the stop-the-world garbage collections
+     */
+    public long getGcMillis() {
+      return gcMillis;
+    }
+
+    /**
+     * @return duration of the longest stop-the-world garbage collection
+     */
+    public long getMaxGcMillis() {
+      return maxGcMillis;
+    }
+
+    /**
+     * @return lowest heap used after a garbage collection or -1 if there was none. Unlike the
+     * usage after a single collection the lowest usage tracks the live data.
+     */
+    public long getHeapAfterGcBytes() {
+      return heapAfterGcBytes;
+    }
+  }
+
+  private final Set<String> heapPoolNames = new HashSet<>();
+  private final com.sun.management.ThreadMXBean threadBean;
+  private final long threadId = Thread.currentThread().getId();
+
+  private long allocatedBytesAtLastCollect;
+  private int gcCount;
+  private long gcMillis;
+  private long maxGcMillis;
+  private long heapAfterGcBytes = -1;
+
+  /**
+   * Starts listening to the garbage collections.
+   */
+  public JvmMonitor() {
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        heapPoolNames.add(pool.getName());
+      }
+    }
+
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    threadBean = bean instanceof com.sun.management.ThreadMXBean
+        && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()
+        ? (com.sun.management.ThreadMXBean) bean : null;
+    allocatedBytesAtLastCollect = getAllocatedBytes();
+
+    for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      if (collector instanceof NotificationEmitter) {
+        ((NotificationEmitter) collector).addNotificationListener(this, null, null);
+      }
+    }
+  }
+
+  @Override
+  public synchronized void handleNotification(Notification notification, Object handback) {
+    if (!notification.getType()
+        .equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+      return;
+    }
+    GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo
+        .from((CompositeData) notification.getUserData());
+
+    if (isStopTheWorld(info.getGcName(), info.getGcAction())) {
+      long duration = info.getGcInfo().getDuration();
+      gcCount++;
+      gcMillis += duration;
+      maxGcMillis = Math.max(maxGcMillis, duration);
+    }
+
+    long heapUsed = 0;
+    for (Map.Entry<String, MemoryUsage> pool : info.getGcInfo().getMemoryUsageAfterGc()
+        .entrySet()) {
+      if (heapPoolNames.contains(pool.getKey())) {
+        heapUsed += pool.getValue().getUsed();
+      }
+    }
+    heapAfterGcBytes = heapAfterGcBytes < 0 ? heapUsed : Math.min(heapAfterGcBytes, heapUsed);
+  }
+
+  /**
+   * @return statistics since the previous call or since the monitor was created
+   */
+  public synchronized JvmStatistics collect() {
+    long allocatedBytes = getAllocatedBytes();
+    JvmStatistics result = new JvmStatistics(
+        allocatedBytes < 0 ? -1 : allocatedBytes - allocatedBytesAtLastCollect,
+        gcCount, gcMillis, maxGcMillis, heapAfterGcBytes);
+
+    allocatedBytesAtLastCollect = allocatedBytes;
+    gcCount = 0;
+    gcMillis = 0;
+    maxGcMillis = 0;
+    heapAfterGcBytes = -1;
+    return result;
+  }
+
+  /**
+   * Stops listening to the garbage collections.
+   */
+  @Override
+  public void close() {
+    for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      if (collector instanceof NotificationEmitter) {
+        try {
+          ((NotificationEmitter) collector).removeNotificationListener(this);
+        } catch (ListenerNotFoundException e) {
+          // Not registered, nothing to remove
+        }
+      }
+    }
+  }
+
+  /**
+   * @param gcName name of the collector, e.g. "G1 Young Generation"
+   * @param gcAction action of the collection, e.g. "end of minor GC"
+   * @return false for the concurrent cycles, whose duration isn't a pause of the application
+   */
+  static boolean isStopTheWorld(String gcName, String gcAction) {
+    // ZGC and Shenandoah report their cycles as "end of GC cycle", newer JDKs report the G1
+    // concurrent cycles as "end of concurrent GC". The "major GC" of CMS lasts the whole cycle.
+    return !gcAction.equals("end of GC cycle") && !gcAction.equals("end of concurrent GC")
+        && !gcName.equals("ConcurrentMarkSweep");
+  }
+
+  private long getAllocatedBytes() {
+    return threadBean == null ? -1 : threadBean.getThreadAllocatedBytes(threadId);
+  }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo.soak;
+
+import com.google.demo.soak.JvmMonitor.JvmStatistics;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Statistics of a soak run, collected in regular intervals, and the checks of the run's
+ * stability.
+ *
+ * Intervals which end within the warmup are reported but not checked. The throughput of the
+ * last third of the checked intervals is compared to the throughput of the first third, and the
+ * trend of the heap used after garbage collection is the least squares slope over all the checked
+ * intervals which had a garbage collection.
+ */
+public class SoakReport {
+
+  private static final Logger log = Logger.getLogger(SoakReport.class.getName());
+
+  private static final double BYTES_PER_MB = 1024 * 1024;
+
+  private static class Interval {
+
+    final double endSeconds;
+    final double seconds;
+    final long events;
+    final JvmStatistics jvmStatistics;
+
+    Interval(double endSeconds, double seconds, long events, JvmStatistics jvmStatistics) {
+      this.endSeconds = endSeconds;
+      this.seconds = seconds;
+      this.events = events;
+      this.jvmStatistics = jvmStatistics;
+    }
+
+    double getEventsPerSecond() {
+      return events / seconds;
+    }
+  }
+
+  private final double warmupSeconds;
+  private final List<Interval> intervals = new ArrayList<>();
+
+  /**
+   * @param warmupSeconds intervals ending before this many seconds of the run are not checked
+   */
+  public SoakReport(double warmupSeconds) {
+    this.warmupSeconds = warmupSeconds;
+  }
+
+  /**
+   * @param endSeconds time since the start of the run at the end of the interval
+   * @param seconds length of the interval
+   * @param events number of change events generated in the interval
+   * @param jvmStatistics of the interval
+   */
+  public void addInterval(double endSeconds, double seconds, long events,
+      JvmStatistics jvmStatistics) {
+    Interval interval = new Interval(endSeconds, seconds, events, jvmStatistics);
+    intervals.add(interval);
+    log.info(String.format("%.0fs: %.0f events/s, %s MB/s allocated, %d GC pause(s) taking %d ms,"
+            + " heap after GC %s", endSeconds, interval.getEventsPerSecond(),
+        formatMb(jvmStatistics.getAllocatedBytes() / seconds), jvmStatistics.getGcCount(),
+        jvmStatistics.getGcMillis(), jvmStatistics.getHeapAfterGcBytes() < 0 ? "-"
+            : formatMb(jvmStatistics.getHeapAfterGcBytes()) + " MB"));
+  }
+
+  /**
+   * Writes all the intervals as CSV.
+   */
+  public void writeCsv(PrintWriter writer) {
+    writer.println("end_seconds,events,events_per_second,allocated_mb_per_second,gc_count,"
+        + "gc_ms,max_gc_ms,heap_after_gc_mb");
+    for (Interval interval : intervals) {
+      JvmStatistics statistics = interval.jvmStatistics;
+      writer.println(String.format("%.1f,%d,%.1f,%s,%d,%d,%d,%s", interval.endSeconds,
+          interval.events, interval.getEventsPerSecond(),
+          formatMb(statistics.getAllocatedBytes() / interval.seconds),
+          statistics.getGcCount(), statistics.getGcMillis(), statistics.getMaxGcMillis(),
+          formatMb(statistics.getHeapAfterGcBytes())));
+    }
+    writer.flush();
+  }
+
+  /**
+   * @return drop of the throughput between the first and the last third of the checked
+   * intervals in percent (negative if the throughput grew) or 0 if there are less than three
+   * checked intervals
+   */
+  public double getThroughputDropPercent() {
+    List<Interval> checked = getCheckedIntervals();
+    int third = checked.size() / 3;
+    if (third == 0) {
+      return 0;
+    }
+    double first = getEventsPerSecond(checked.subList(0, third));
+    double last = getEventsPerSecond(checked.subList(checked.size() - third, checked.size()));
+    return first == 0 ? 0 : (first - last) * 100 / first;
+  }
+
+  /**
+   * @return trend of the heap used after garbage collection in MB per minute or 0 if there are
+   * less than two checked intervals with a garbage collection
+   */
+  public double getHeapGrowthMbPerMinute() {
+    List<Double> minutes = new ArrayList<>();
+    List<Double> heapMb = new ArrayList<>();
+    for (Interval interval : getCheckedIntervals()) {
+      if (interval.jvmStatistics.getHeapAfterGcBytes() >= 0) {
+        minutes.add(interval.endSeconds / 60);
+        heapMb.add(interval.jvmStatistics.getHeapAfterGcBytes() / BYTES_PER_MB);
+      }
+    }
+    return slope(minutes, heapMb);
+  }
+
+  /**
+   * @return longest garbage collection of the whole run
+   */
+  public long getMaxGcMillis() {
+    long result = 0;
+    for (Interval interval : intervals) {
+      result = Math.max(result, interval.jvmStatistics.getMaxGcMillis());
+    }
+    return result;
+  }
+
+  /**
+   * Checks the stability of the run.
+   *
+   * @param maxThroughputDropPercent highest acceptable throughput drop
+   * @param maxHeapGrowthMbPerMinute highest acceptable heap trend
+   * @return descriptions of the failed checks, empty if the run is stable
+   */
+  public List<String> check(double maxThroughputDropPercent, double maxHeapGrowthMbPerMinute) {
+    List<String> result = new ArrayList<>();
+    double throughputDrop = getThroughputDropPercent();
+    if (throughputDrop > maxThroughputDropPercent) {
+      result.add(String.format("Throughput dropped by %.1f%%, more than %.1f%%",
+          throughputDrop, maxThroughputDropPercent));
+    }
+    double heapGrowth = getHeapGrowthMbPerMinute();
+    if (heapGrowth > maxHeapGrowthMbPerMinute) {
+      result.add(String.format("Heap after GC grows by %.2f MB/min, more than %.2f MB/min",
+          heapGrowth, maxHeapGrowthMbPerMinute));
+    }
+    return result;
+  }
+
+  private List<Interval> getCheckedIntervals() {
+    List<Interval> result = new ArrayList<>();
+    for (Interval interval : intervals) {
+      if (interval.endSeconds > warmupSeconds) {
+        result.add(interval);
+      }
+    }
+    return result;
+  }
+
+  private static double getEventsPerSecond(List<Interval> intervals) {
+    long events = 0;
+    double seconds = 0;
+    for (Interval interval : intervals) {
+      events += interval.events;
+      seconds += interval.seconds;
+    }
+    return events / seconds;
+  }
+
+  /**
+   * @return bytes in MB or empty string if not measured (negative)
+   */
+  private static String formatMb(double bytes) {
+    return bytes < 0 ? "" : String.format("%.2f", bytes / BYTES_PER_MB);
+  }
+
+  /**
+   * Least squares slope of y over x.
+   */
+  static double slope(List<Double> x, List<Double> y) {
+    int n = x.size();
+    if (n < 2) {
+      return 0;
+    }
+    double meanX = 0;
+    double meanY = 0;
+    for (int i = 0; i < n; i++) {
+      meanX += x.get(i) / n;
+      meanY += y.get(i) / n;
+    }
+    double covariance = 0;
+    double variance = 0;
+    for (int i = 0; i < n; i++) {
+      covariance += (x.get(i) - meanX) * (y.get(i) - meanY);
+      variance += (x.get(i) - meanX) * (x.get(i) - meanX);
+    }
+    return variance == 0 ? 0 : covariance / variance;
+  }
+}
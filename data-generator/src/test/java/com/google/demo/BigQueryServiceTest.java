@@ -0,0 +1,45 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo;
+
+import static com.google.demo.Constants.INSERT_OP;
+import static com.google.demo.Constants.SESSION_ID_COLUMN;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.cloud.bigquery.InsertAllRequest;
+import com.google.cloud.bigquery.TableId;
+import com.google.demo.model.Session;
+import com.google.demo.model.SessionBatch;
+
+class BigQueryServiceTest {
+
+  @org.junit.jupiter.api.Test
+  void insertRequestKeepsEveryRow() {
+    SessionBatch batch = new SessionBatch(2);
+    batch.add(new Session(), INSERT_OP, 1, 0);
+    batch.add(new Session(), INSERT_OP, 2, 0);
+
+    // The values of all the rows are collected in the same map
+    InsertAllRequest request = new BigQueryService(null)
+        .createInsertRequest(TableId.of("project", "dataset", "table"), batch);
+    assertEquals(2, request.getRows().size());
+    for (int i = 0; i < batch.size(); i++) {
+      assertEquals(batch.getSessionId(i),
+          request.getRows().get(i).getContent().get(SESSION_ID_COLUMN));
+    }
+  }
+}
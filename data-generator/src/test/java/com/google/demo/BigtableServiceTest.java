@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo;
+
+import static com.google.demo.Constants.DELETE_OP;
+import static com.google.demo.Constants.INSERT_OP;
+import static com.google.demo.Constants.UPDATE_OP;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.cloud.bigtable.data.v2.models.Mutation;
+import com.google.demo.bigtable.CellEncoding;
+import com.google.demo.bigtable.RowKeyStrategy;
+import com.google.demo.model.Session;
+import com.google.demo.model.SessionBatch;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+class BigtableServiceTest {
+
+  private final BigtableService bigtableService = new BigtableService(null,
+      RowKeyStrategy.STRING, CellEncoding.TEXT);
+
+  @org.junit.jupiter.api.Test
+  void insertSetsStatusAndStart() {
+    SessionBatch batch = new SessionBatch(1);
+    batch.add(new Session(), INSERT_OP, 1, 0);
+    assertEquals(Arrays.asList("status", "start_ts"), qualifiers(createMutation(batch, 0)));
+  }
+
+  @org.junit.jupiter.api.Test
+  void updatesSetOnlyTheChangedCells() {
+    Session session = new Session();
+    SessionBatch batch = new SessionBatch(3);
+    batch.add(session, INSERT_OP, 1, 0);
+    batch.markPersisted();
+    // The customer key cell isn't written without a value
+    session.loggedIn(null);
+    batch.add(session, UPDATE_OP, 2, 0);
+    batch.markPersisted();
+    session.logout();
+    batch.add(session, UPDATE_OP, 3, 0);
+
+    assertEquals(Arrays.asList("status"), qualifiers(createMutation(batch, 1)));
+    assertEquals(Arrays.asList("status", "end_ts"), qualifiers(createMutation(batch, 2)));
+    assertEquals(batch.getEndTimestamp(2),
+        createMutation(batch, 2).getMutations().get(1).getSetCell().getValue().toStringUtf8());
+  }
+
+  @org.junit.jupiter.api.Test
+  void unchangedSessionIsSkipped() {
+    Session session = new Session();
+    session.clearChangedFields();
+    SessionBatch batch = new SessionBatch(1);
+    batch.add(session, UPDATE_OP, 1, 0);
+    assertNull(bigtableService.createMutation(batch, 0));
+  }
+
+  @org.junit.jupiter.api.Test
+  void deleteRemovesTheRow() {
+    SessionBatch batch = new SessionBatch(1);
+    batch.add(new Session(), DELETE_OP, 1, 0);
+    List<com.google.bigtable.v2.Mutation> mutations = createMutation(batch, 0).getMutations();
+    assertEquals(1, mutations.size());
+    assertTrue(mutations.get(0).hasDeleteFromRow());
+  }
+
+  private Mutation createMutation(SessionBatch batch, int index) {
+    Mutation mutation = bigtableService.createMutation(batch, index);
+    assertNotNull(mutation);
+    return mutation;
+  }
+
+  private static List<String> qualifiers(Mutation mutation) {
+    List<String> result = new ArrayList<>();
+    for (com.google.bigtable.v2.Mutation entry : mutation.getMutations()) {
+      assertTrue(entry.hasSetCell());
+      result.add(entry.getSetCell().getColumnQualifier().toStringUtf8());
+    }
+    return result;
+  }
+}
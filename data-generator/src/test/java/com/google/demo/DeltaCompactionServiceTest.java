@@ -0,0 +1,70 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.demo.DeltaCompactionService.Partition;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+class DeltaCompactionServiceTest {
+
+  private static final Instant MERGE_START = Instant.parse("2019-10-24T12:00:00Z");
+
+  private final Partition merged1 = new Partition("20191022", 1000,
+      Instant.parse("2019-10-23T01:00:00Z"));
+  private final Partition merged2 = new Partition("20191023", 2000,
+      Instant.parse("2019-10-24T01:00:00Z"));
+  private final Partition modifiedAfterMerge = new Partition("20191024", 3000,
+      Instant.parse("2019-10-24T13:00:00Z"));
+  private final Partition latest = new Partition("20191025", 10,
+      Instant.parse("2019-10-24T11:00:00Z"));
+
+  @org.junit.jupiter.api.Test
+  void selectPartitionsToDelete() {
+    List<Partition> partitions = Arrays.asList(merged1, merged2, modifiedAfterMerge, latest);
+    assertEquals(Arrays.asList(merged1, merged2),
+        DeltaCompactionService.selectPartitionsToDelete(partitions, MERGE_START));
+  }
+
+  @org.junit.jupiter.api.Test
+  void selectNothingWithoutMerge() {
+    List<Partition> partitions = Arrays.asList(merged1, merged2, latest);
+    assertEquals(Collections.emptyList(),
+        DeltaCompactionService.selectPartitionsToDelete(partitions, null));
+  }
+
+  @org.junit.jupiter.api.Test
+  void selectPartitionsToCompact() {
+    List<Partition> partitions = Arrays.asList(merged1, merged2, modifiedAfterMerge, latest);
+    List<Partition> partitionsToDelete = Arrays.asList(merged1, merged2);
+    assertEquals(Collections.singletonList(modifiedAfterMerge),
+        DeltaCompactionService.selectPartitionsToCompact(partitions, partitionsToDelete, 100));
+  }
+
+  @org.junit.jupiter.api.Test
+  void newestPartitionIsNotCompacted() {
+    Partition largeLatest = new Partition("20191025", 5000,
+        Instant.parse("2019-10-25T11:00:00Z"));
+    List<Partition> partitions = Arrays.asList(merged1, merged2, largeLatest);
+    assertEquals(Collections.emptyList(), DeltaCompactionService
+        .selectPartitionsToCompact(partitions, Arrays.asList(merged1, merged2), 100));
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo;
+
+import static com.google.demo.Constants.INSERT_OP;
+import static com.google.demo.Constants.UPDATE_OP;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.demo.model.SessionBatch;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+class WorkloadGeneratorTest {
+
+  @org.junit.jupiter.api.Test
+  void hotKeyUpdatesGoToNewestSessions() {
+    WorkloadGenerator generator = new WorkloadGenerator(new Random(0));
+    Set<String> newest = new HashSet<>();
+    // Stays below the limit of recent sessions, so that none of them is abandoned. The newest 1%
+    // of them are among the inserts of the last batch.
+    for (int i = 0; i < 99; i++) {
+      SessionBatch batch = generator.nextBatch(100, 0, 0);
+      newest.clear();
+      for (int j = 0; j < batch.size(); j++) {
+        if (batch.getOperation(j).equals(INSERT_OP)) {
+          newest.add(batch.getSessionId(j));
+        }
+      }
+    }
+
+    SessionBatch batch = generator.nextBatch(100, 50, 0, 100);
+    int updates = 0;
+    for (int i = 0; i < batch.size(); i++) {
+      if (batch.getOperation(i).equals(UPDATE_OP)) {
+        assertTrue(newest.contains(batch.getSessionId(i)));
+        updates++;
+      }
+    }
+    assertEquals(50, updates);
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo.bigtable;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.demo.model.Session.Status;
+import java.time.Instant;
+
+class CellEncodingTest {
+
+  private static final Instant START = Instant.ofEpochSecond(1571068536L, 842 * 1000_000);
+
+  @org.junit.jupiter.api.Test
+  void binaryCellEncoding() {
+    assertArrayEquals(new byte[]{2},
+        CellEncoding.BINARY.encodeStatus(Status.LOGGED_IN).toByteArray());
+    assertArrayEquals(new byte[]{0, 5, (byte) 0x94, (byte) 0xe0, (byte) 0xe6, 0x0e, 0x67, 0x10},
+        CellEncoding.BINARY.encodeTimestamp(START).toByteArray());
+  }
+
+  @org.junit.jupiter.api.Test
+  void textCellEncoding() {
+    assertEquals("LOGGED_IN", CellEncoding.TEXT.encodeStatus(Status.LOGGED_IN).toStringUtf8());
+    assertEquals("2019-10-14 15:55:36.842000+00:00",
+        CellEncoding.TEXT.encodeTimestamp(START).toStringUtf8());
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo.bigtable;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.protobuf.ByteString;
+import java.time.Instant;
+
+class RowKeyStrategyTest {
+
+  private static final String SESSION_ID = "3f2504e0-4f89-11d3-9a0c-0305e82c3301";
+  private static final Instant START = Instant.ofEpochSecond(1571068536L, 842 * 1000_000);
+
+  @org.junit.jupiter.api.Test
+  void stringKeyIsSessionId() {
+    assertEquals(SESSION_ID, RowKeyStrategy.STRING.rowKey(SESSION_ID, START).toStringUtf8());
+  }
+
+  @org.junit.jupiter.api.Test
+  void hashPrefixKeyEndsWithSessionId() {
+    String rowKey = RowKeyStrategy.HASH_PREFIX.rowKey(SESSION_ID, START).toStringUtf8();
+    assertTrue(rowKey.matches("[0-9a-f]{2}#" + SESSION_ID), rowKey);
+  }
+
+  @org.junit.jupiter.api.Test
+  void reversedTimestampKeySortsNewestFirst() {
+    String older = RowKeyStrategy.REVERSED_TIMESTAMP.rowKey(SESSION_ID, START).toStringUtf8();
+    String newer = RowKeyStrategy.REVERSED_TIMESTAMP
+        .rowKey(SESSION_ID, START.plusMillis(1)).toStringUtf8();
+    assertTrue(older.matches("[0-9a-f]{2}#[0-9a-f]{16}#" + SESSION_ID), older);
+    assertTrue(newer.compareTo(older) < 0);
+  }
+
+  @org.junit.jupiter.api.Test
+  void binaryKeyIsUuidBytes() {
+    ByteString rowKey = RowKeyStrategy.BINARY.rowKey(SESSION_ID, START);
+    assertEquals(16, rowKey.size());
+    assertEquals((byte) 0x3f, rowKey.byteAt(0));
+    assertEquals((byte) 0x01, rowKey.byteAt(15));
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo.lag;
+
+import static com.google.demo.Constants.INSERT_OP;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.demo.lag.LagProbe.LagStatistics;
+import com.google.demo.lag.MirrorReader.Stage;
+import com.google.demo.local.LocalMirror;
+import com.google.demo.model.Session;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+class LagProbeTest {
+
+  private static class ManualClock extends Clock {
+
+    private Instant now = Instant.parse("2020-01-01T00:00:00Z");
+
+    void advance(Duration duration) {
+      now = now.plus(duration);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Instant instant() {
+      return now;
+    }
+  }
+
+  @org.junit.jupiter.api.Test
+  void measuresLagPerStage() {
+    LocalMirror mirror = new LocalMirror();
+    ManualClock clock = new ManualClock();
+    LagProbe probe = new LagProbe(mirror, clock, 1, Duration.ofMinutes(10),
+        Duration.ofMinutes(1));
+
+    for (int i = 1; i <= 10; i++) {
+      Session session = new Session();
+      probe.offer(session.getSessionId(), i, clock.instant());
+      clock.advance(Duration.ofMillis(100));
+      mirror.stream(LocalMirror.Row.of(session, i, INSERT_OP));
+    }
+    clock.advance(Duration.ofMillis(1000));
+    probe.poll();
+
+    clock.advance(Duration.ofSeconds(5));
+    mirror.merge();
+    probe.poll();
+
+    // Samples were generated 100ms apart, the last one 1100ms before the first poll
+    LagStatistics stream = probe.getStatistics(Stage.STREAM);
+    assertEquals(10, stream.getSamples());
+    assertEquals(0, stream.getExpired());
+    assertEquals(1500, stream.getP50());
+    assertEquals(1900, stream.getP90());
+    assertEquals(2000, stream.getMax());
+
+    LagStatistics merge = probe.getStatistics(Stage.MERGE);
+    assertEquals(10, merge.getSamples());
+    assertEquals(6500, merge.getP50());
+    assertEquals(7000, merge.getMax());
+  }
+
+  @org.junit.jupiter.api.Test
+  void countsExpiredSamples() {
+    LocalMirror mirror = new LocalMirror();
+    ManualClock clock = new ManualClock();
+    LagProbe probe = new LagProbe(mirror, clock, 2, Duration.ofSeconds(30),
+        Duration.ofMinutes(1));
+
+    for (int i = 1; i <= 4; i++) {
+      Session session = new Session();
+      probe.offer(session.getSessionId(), i, clock.instant());
+      mirror.stream(LocalMirror.Row.of(session, i, INSERT_OP));
+    }
+    clock.advance(Duration.ofSeconds(31));
+    probe.poll();
+
+    assertEquals(2, probe.getStatistics(Stage.STREAM).getSamples());
+    assertEquals(0, probe.getStatistics(Stage.MERGE).getSamples());
+    assertEquals(2, probe.getStatistics(Stage.MERGE).getExpired());
+
+    StringWriter report = new StringWriter();
+    probe.writeReport(new PrintWriter(report));
+    String[] lines = report.toString().split(System.lineSeparator());
+    assertEquals(
+        "stage,bucket_start,samples,expired,pending,dropped,p50_ms,p90_ms,p99_ms,max_ms",
+        lines[0]);
+    assertEquals("stream,all,2,0,0,0,31000,31000,31000,31000", lines[1]);
+    assertEquals("stream,2020-01-01T00:00:00Z,2,0,0,0,31000,31000,31000,31000", lines[2]);
+    assertEquals("merge,all,0,2,0,0,0,0,0,0", lines[3]);
+    assertEquals("merge,2020-01-01T00:00:00Z,0,2,0,0,0,0,0,0", lines[4]);
+    assertEquals(5, lines.length);
+  }
+
+  @org.junit.jupiter.api.Test
+  void countsPendingSamples() {
+    LocalMirror mirror = new LocalMirror();
+    ManualClock clock = new ManualClock();
+    LagProbe probe = new LagProbe(mirror, clock, 1, Duration.ofSeconds(30),
+        Duration.ofMinutes(1));
+
+    Session session = new Session();
+    probe.offer(session.getSessionId(), 1, clock.instant());
+    mirror.stream(LocalMirror.Row.of(session, 1, INSERT_OP));
+    clock.advance(Duration.ofSeconds(5));
+    probe.poll();
+
+    LagStatistics merge = probe.getStatistics(Stage.MERGE);
+    assertEquals(0, merge.getSamples());
+    assertEquals(0, merge.getExpired());
+    assertEquals(1, merge.getPending());
+    assertEquals(1, probe.getStatistics(Stage.MERGE, clock.instant().minusSeconds(10),
+        clock.instant()).getPending());
+    assertEquals(0, probe.getStatistics(Stage.STREAM).getPending());
+  }
+
+  @org.junit.jupiter.api.Test
+  void countsDroppedSamples() {
+    LocalMirror mirror = new LocalMirror();
+    ManualClock clock = new ManualClock();
+    LagProbe probe = new LagProbe(mirror, clock, 1, Duration.ofSeconds(30),
+        Duration.ofMinutes(1));
+
+    // Nothing is visible, so the samples above the limit of pending samples are dropped
+    for (int i = 1; i <= 10_005; i++) {
+      probe.offer("session" + i, i, clock.instant());
+    }
+    clock.advance(Duration.ofSeconds(5));
+    probe.poll();
+
+    LagStatistics stream = probe.getStatistics(Stage.STREAM);
+    assertEquals(10_000, stream.getPending());
+    assertEquals(5, stream.getDropped());
+    assertEquals(5, probe.getStatistics(Stage.MERGE, clock.instant().minusSeconds(10),
+        clock.instant()).getDropped());
+
+    StringWriter report = new StringWriter();
+    probe.writeReport(new PrintWriter(report));
+    assertTrue(report.toString().contains("stream,all,0,0,10000,5,"));
+  }
+
+  @org.junit.jupiter.api.Test
+  void failedPollIsCountedAndRetried() {
+    ManualClock clock = new ManualClock();
+    boolean[] failing = {true};
+    LocalMirror mirror = new LocalMirror();
+    MirrorReader reader = (stage, sessionIds) -> {
+      if (failing[0]) {
+        throw new IllegalStateException("transient failure");
+      }
+      return mirror.readSequences(stage, sessionIds);
+    };
+    LagProbe probe = new LagProbe(reader, clock, 1, Duration.ofHours(1), Duration.ofMinutes(1));
+
+    Session session = new Session();
+    mirror.stream(LocalMirror.Row.of(session, 1, INSERT_OP));
+    probe.offer(session.getSessionId(), 1, clock.instant());
+
+    probe.poll();
+    assertEquals(1, probe.getFailedPolls());
+    assertEquals(0, probe.getStatistics(Stage.STREAM).getSamples());
+
+    failing[0] = false;
+    probe.poll();
+    assertEquals(1, probe.getStatistics(Stage.STREAM).getSamples());
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo.local;
+
+import static com.google.demo.Constants.DELETE_OP;
+import static com.google.demo.Constants.INSERT_OP;
+import static com.google.demo.Constants.UPDATE_OP;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.demo.model.Session;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+class LocalMirrorTest {
+
+  @org.junit.jupiter.api.Test
+  void latestTableMatchesLatestView() {
+    LocalMirror mirror = new LocalMirror();
+    List<Session> liveSessions = new ArrayList<>();
+    Random random = new Random(42);
+    long sequence = 0;
+
+    for (int batch = 0; batch < 50; batch++) {
+      for (int i = 0; i < 20; i++) {
+        Session session = new Session();
+        liveSessions.add(session);
+        mirror.stream(LocalMirror.Row.of(session, ++sequence, INSERT_OP));
+      }
+      for (int i = 0; i < 10; i++) {
+        Session session = liveSessions.get(random.nextInt(liveSessions.size()));
+        session.loggedIn("customer" + i);
+        mirror.stream(LocalMirror.Row.of(session, ++sequence, UPDATE_OP));
+      }
+      for (int i = 0; i < 3; i++) {
+        Session session = liveSessions.remove(random.nextInt(liveSessions.size()));
+        mirror.stream(LocalMirror.Row.of(session, ++sequence, DELETE_OP));
+      }
+
+      if (batch % 3 == 0) {
+        mirror.refreshLatest();
+        assertEquals(mirror.queryLatestView(), mirror.queryLatestTable());
+      }
+      if (batch % 7 == 0) {
+        mirror.merge();
+      }
+    }
+
+    mirror.refreshLatest();
+    assertEquals(liveSessions.size(), mirror.queryLatestTable().size());
+    assertEquals(mirror.queryLatestView(), mirror.queryLatestTable());
+
+    mirror.merge();
+    assertEquals(mirror.queryLatestView(), mirror.queryMain());
+  }
+
+  @org.junit.jupiter.api.Test
+  void compactionKeepsLatestState() {
+    LocalMirror mirror = new LocalMirror();
+    List<Session> sessions = new ArrayList<>();
+    long sequence = 0;
+    for (int i = 0; i < 10; i++) {
+      Session session = new Session();
+      sessions.add(session);
+      mirror.stream(LocalMirror.Row.of(session, ++sequence, INSERT_OP));
+    }
+    mirror.merge();
+    sessions.get(0).loggedIn("customer0");
+    mirror.stream(LocalMirror.Row.of(sessions.get(0), ++sequence, UPDATE_OP));
+
+    // Only the merged rows are removed
+    assertEquals(10, mirror.compact());
+    assertEquals(1, mirror.getDeltaSize());
+    assertEquals(10, mirror.queryLatestView().size());
+    assertEquals("LOGGED_IN", mirror.queryLatestView().get(sessions.get(0).getSessionId())
+        .getStatus());
+
+    // Once the latest state is maintained, rows not applied to it are kept
+    mirror.refreshLatest();
+    mirror.stream(LocalMirror.Row.of(sessions.get(1), ++sequence, DELETE_OP));
+    mirror.merge();
+    assertEquals(1, mirror.compact());
+    mirror.refreshLatest();
+    assertEquals(mirror.queryLatestView(), mirror.queryLatestTable());
+    assertEquals(mirror.queryLatestView(), mirror.queryMain());
+  }
+
+  @org.junit.jupiter.api.Test
+  void refreshReadsLookbackAndTable() {
+    LocalMirror mirror = new LocalMirror(1);
+    List<Session> sessions = new ArrayList<>();
+    long sequence = 0;
+    for (int i = 0; i < 10; i++) {
+      Session session = new Session();
+      sessions.add(session);
+      mirror.stream(LocalMirror.Row.of(session, ++sequence, INSERT_OP));
+    }
+    mirror.refreshLatest();
+
+    long[] expectedRowsScanned = {10 + 5, 10 + 10, 10 + 10};
+    for (long expected : expectedRowsScanned) {
+      for (int i = 0; i < 5; i++) {
+        Session session = sessions.get(i);
+        session.loggedIn("customer" + sequence);
+        mirror.stream(LocalMirror.Row.of(session, ++sequence, UPDATE_OP));
+      }
+      long scannedBefore = mirror.getRowsScanned();
+      mirror.refreshLatest();
+      assertEquals(expected, mirror.getRowsScanned() - scannedBefore);
+      assertEquals(mirror.queryLatestView(), mirror.queryLatestTable());
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo.model;
+
+import static com.google.demo.Constants.DELETE_OP;
+import static com.google.demo.Constants.INSERT_OP;
+import static com.google.demo.Constants.UPDATE_OP;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.demo.bigquery.ConversionUtil;
+import com.google.demo.model.Session.Status;
+
+class SessionBatchTest {
+
+  @org.junit.jupiter.api.Test
+  void capturesSessionState() {
+    SessionBatch batch = new SessionBatch(1);
+    Session session = new Session();
+    batch.add(session, INSERT_OP, 1, 100);
+    batch.markPersisted();
+    session.loggedIn("customer1");
+    batch.add(session, UPDATE_OP, 2, 200);
+    batch.markPersisted();
+    session.logout();
+    batch.add(session, DELETE_OP, 3, 300);
+
+    assertEquals(3, batch.size());
+    assertEquals(session.getSessionId(), batch.getSessionId(2));
+
+    assertEquals(Status.NEW, batch.getStatus(0));
+    assertNull(batch.getCustomerKey(0));
+    assertEquals(ConversionUtil.convertToMicros(session.getStart()), batch.getStartMicros(0));
+    assertEquals(SessionBatch.NO_TIMESTAMP, batch.getEndMicros(0));
+    assertEquals(Session.STATUS_FIELD | Session.START_FIELD, batch.getChangedFields(0));
+    assertEquals(INSERT_OP, batch.getOperation(0));
+    assertFalse(batch.isDelete(0));
+
+    assertEquals(Status.LOGGED_IN, batch.getStatus(1));
+    assertEquals("customer1", batch.getCustomerKey(1));
+    assertEquals(Session.STATUS_FIELD | Session.CUSTOMER_KEY_FIELD, batch.getChangedFields(1));
+    assertEquals(UPDATE_OP, batch.getOperation(1));
+    assertEquals(2, batch.getSequence(1));
+    assertEquals(200, batch.getGeneratedMicros(1));
+
+    assertEquals(Status.LOGGED_OUT, batch.getStatus(2));
+    assertEquals(ConversionUtil.convertToMicros(session.getEnd()), batch.getEndMicros(2));
+    assertTrue(batch.isDelete(2));
+
+    // Changed fields are kept until the batch is persisted
+    assertNotEquals(0, session.getChangedFields());
+    batch.markPersisted();
+    assertEquals(0, session.getChangedFields());
+  }
+
+  @org.junit.jupiter.api.Test
+  void failedWriteKeepsChangedFields() {
+    SessionBatch batch = new SessionBatch(1);
+    Session session = new Session();
+    batch.add(session, INSERT_OP, 1, 0);
+    // The write of the batch failed, the batch isn't marked as persisted
+    batch.clear();
+
+    session.loggedIn("customer1");
+    batch.add(session, UPDATE_OP, 2, 0);
+    assertEquals(Session.STATUS_FIELD | Session.START_FIELD | Session.CUSTOMER_KEY_FIELD,
+        batch.getChangedFields(0));
+  }
+
+  @org.junit.jupiter.api.Test
+  void reusesColumnsAfterClear() {
+    SessionBatch batch = new SessionBatch(2);
+    for (int i = 0; i < 5; i++) {
+      batch.add(new Session(), INSERT_OP, i, 0);
+    }
+    assertEquals(5, batch.size());
+
+    batch.clear();
+    assertEquals(0, batch.size());
+
+    Session session = new Session();
+    batch.add(session, UPDATE_OP, 10, 0);
+    assertEquals(1, batch.size());
+    assertEquals(session.getSessionId(), batch.getSessionId(0));
+    assertEquals(10, batch.getSequence(0));
+  }
+
+  @org.junit.jupiter.api.Test
+  void formatsTimestampsOnce() {
+    SessionBatch batch = new SessionBatch(1);
+    Session session = new Session();
+    batch.add(session, INSERT_OP, 1, 0);
+
+    String start = batch.getStartTimestamp(0);
+    assertEquals(ConversionUtil.convertToTimestamp(batch.getStartMicros(0)), start);
+    assertSame(start, batch.getStartTimestamp(0));
+    assertNull(batch.getEndTimestamp(0));
+
+    batch.clear();
+    session.logout();
+    batch.add(session, UPDATE_OP, 2, 0);
+    assertEquals(ConversionUtil.convertToTimestamp(batch.getEndMicros(0)),
+        batch.getEndTimestamp(0));
+  }
+
+  @org.junit.jupiter.api.Test
+  void rejectsUnknownOperation() {
+    assertThrows(IllegalArgumentException.class,
+        () -> new SessionBatch(1).add(new Session(), "X", 1, 0));
+  }
+}
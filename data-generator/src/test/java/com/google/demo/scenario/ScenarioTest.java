@@ -0,0 +1,110 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo.scenario;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.demo.lag.LagProbe.LagStatistics;
+import com.google.demo.scenario.Scenario.Phase;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+
+class ScenarioTest {
+
+  @org.junit.jupiter.api.Test
+  void parse() {
+    Properties properties = new Properties();
+    properties.setProperty("phases", "warmup, ramp");
+    properties.setProperty("warmup.duration", "30");
+    properties.setProperty("warmup.rate", "1000");
+    properties.setProperty("ramp.duration", "60");
+    properties.setProperty("ramp.rate", "1000");
+    properties.setProperty("ramp.end_rate", "4000");
+    properties.setProperty("ramp.update_percent", "40");
+    properties.setProperty("ramp.hot_key_percent", "50");
+
+    Scenario scenario = Scenario.parse("test", properties);
+    assertEquals(60, scenario.getMergeIntervalInSeconds());
+    assertEquals(2, scenario.getPhases().size());
+
+    Phase warmup = scenario.getPhases().get(0);
+    assertEquals("warmup", warmup.getName());
+    assertEquals(1000, warmup.getRate(15), 1e-9);
+    assertEquals(20, warmup.getPercentOfUpdatesPerBatch());
+    assertEquals(0, warmup.getPercentOfHotKeyUpdates());
+
+    Phase ramp = scenario.getPhases().get(1);
+    assertEquals(1000, ramp.getRate(0), 1e-9);
+    assertEquals(2500, ramp.getRate(30), 1e-9);
+    assertEquals(4000, ramp.getRate(90), 1e-9);
+    assertEquals(40, ramp.getPercentOfUpdatesPerBatch());
+    assertEquals(50, ramp.getPercentOfHotKeyUpdates());
+  }
+
+  @org.junit.jupiter.api.Test
+  void rampFromZeroIsPaced() {
+    Phase ramp = new Phase("ramp", 10, 0, 1000, 100, 20, 5, 0);
+    assertTrue(ramp.isPaced());
+    assertEquals(0, ramp.getRate(0), 1e-9);
+    assertEquals(500, ramp.getRate(5), 1e-9);
+    assertEquals(1250, ramp.getInserts(5), 1e-9);
+    assertEquals(5000, ramp.getInserts(20), 1e-9);
+
+    assertFalse(new Phase("burst", 10, 0, 0, 100, 20, 5, 0).isPaced());
+  }
+
+  @org.junit.jupiter.api.Test
+  void invalidDefinitionsAreRejected() {
+    Properties properties = new Properties();
+    assertThrows(IllegalArgumentException.class, () -> Scenario.parse("test", properties));
+
+    properties.setProperty("phases", "steady");
+    assertThrows(IllegalArgumentException.class, () -> Scenario.parse("test", properties));
+
+    properties.setProperty("steady.duration", "-1");
+    assertThrows(IllegalArgumentException.class, () -> Scenario.parse("test", properties));
+
+    properties.setProperty("steady.duration", "10");
+    properties.setProperty("steady.hot_key_percent", "101");
+    assertThrows(IllegalArgumentException.class, () -> Scenario.parse("test", properties));
+  }
+
+  @org.junit.jupiter.api.Test
+  void writeResults() {
+    PhaseResult result = new PhaseResult("baseline", "encoding", "steady", 10, 5000,
+        LagStatistics.of(Arrays.asList(100L, 200L, 300L), 0),
+        LagStatistics.of(Arrays.asList(5L, 7L), 1, 2), null, -1, -1, -1, -1);
+
+    StringWriter csv = new StringWriter();
+    PhaseResult.writeCsv(Collections.singletonList(result), new PrintWriter(csv));
+    String[] lines = csv.toString().split("\\R");
+    assertEquals(2, lines.length);
+    assertTrue(lines[0].startsWith("scenario,sink,phase,seconds,events,events_per_second,"
+        + "write_p50_us"));
+    assertTrue(lines[1].startsWith("baseline,encoding,steady,10.0,5000,500.0,200,300,300,300,"));
+
+    StringWriter json = new StringWriter();
+    PhaseResult.writeJson(Collections.singletonList(result), new PrintWriter(json));
+    assertTrue(json.toString().contains("\"sink\": \"encoding\""));
+    assertTrue(json.toString().contains("\"merges\": null"));
+    assertTrue(json.toString().contains("\"stream_lag_samples\": 2, \"stream_lag_expired\": 1,"
+        + " \"stream_lag_pending\": 2, \"stream_lag_dropped\": 0"));
+  }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo.soak;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JvmMonitorTest {
+
+  @org.junit.jupiter.api.Test
+  void concurrentCyclesAreNotPauses() {
+    assertTrue(JvmMonitor.isStopTheWorld("G1 Young Generation", "end of minor GC"));
+    assertTrue(JvmMonitor.isStopTheWorld("PS MarkSweep", "end of major GC"));
+    assertTrue(JvmMonitor.isStopTheWorld("Shenandoah Pauses", "Final Mark"));
+    assertFalse(JvmMonitor.isStopTheWorld("ZGC Cycles", "end of GC cycle"));
+    assertFalse(JvmMonitor.isStopTheWorld("G1 Concurrent GC", "end of concurrent GC"));
+    assertFalse(JvmMonitor.isStopTheWorld("ConcurrentMarkSweep", "end of major GC"));
+  }
+}
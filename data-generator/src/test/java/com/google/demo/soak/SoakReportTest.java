@@ -0,0 +1,64 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.demo.soak;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.demo.soak.JvmMonitor.JvmStatistics;
+import java.util.Arrays;
+
+class SoakReportTest {
+
+  private static final long MB = 1024 * 1024;
+
+  @org.junit.jupiter.api.Test
+  void stableRunPasses() {
+    SoakReport report = new SoakReport(60);
+    for (int i = 1; i <= 12; i++) {
+      report.addInterval(i * 30, 30, 30_000, new JvmStatistics(0, 1, 5, 5, 100 * MB));
+    }
+    assertEquals(0, report.getThroughputDropPercent(), 1e-9);
+    assertEquals(0, report.getHeapGrowthMbPerMinute(), 1e-9);
+    assertTrue(report.check(10, 1).isEmpty());
+  }
+
+  @org.junit.jupiter.api.Test
+  void growingHeapAndDroppingThroughputFail() {
+    SoakReport report = new SoakReport(60);
+    // The warmup intervals are ignored
+    report.addInterval(30, 30, 1_000, new JvmStatistics(0, 1, 5, 5, 10 * MB));
+    report.addInterval(60, 30, 1_000, new JvmStatistics(0, 1, 5, 5, 500 * MB));
+    for (int i = 3; i <= 8; i++) {
+      // Heap grows by 2 MB per minute, the throughput drops from 1000 to 500 events per second
+      report.addInterval(i * 60, 60, i <= 4 ? 60_000 : 30_000,
+          new JvmStatistics(0, 1, 5, 5, (100 + 2 * i) * MB));
+    }
+    report.addInterval(9 * 60, 60, 30_000, new JvmStatistics(0, 0, 0, 0, -1));
+
+    assertEquals(50, report.getThroughputDropPercent(), 1e-9);
+    assertEquals(2, report.getHeapGrowthMbPerMinute(), 1e-9);
+    assertEquals(2, report.check(20, 1).size());
+    assertTrue(report.check(50, 2).isEmpty());
+  }
+
+  @org.junit.jupiter.api.Test
+  void slope() {
+    assertEquals(0.5, SoakReport.slope(Arrays.asList(0.0, 2.0, 4.0), Arrays.asList(1.0, 2.0, 3.0)),
+        1e-9);
+    assertEquals(0, SoakReport.slope(Arrays.asList(1.0), Arrays.asList(1.0)), 1e-9);
+  }
+}
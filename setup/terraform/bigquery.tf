@@ -22,7 +22,7 @@ resource "google_bigquery_dataset" "cdc_demo" {
 
   depends_on = [google_bigtable_table.session]
   provisioner "local-exec" {
-    command = "./create-bigtable-session-link.sh ${var.project_id} ${google_bigquery_dataset.cdc_demo.dataset_id}"
+    command = "./create-bigtable-session-link.sh ${var.project_id} ${google_bigquery_dataset.cdc_demo.dataset_id} ${var.bigtable_row_key_strategy} ${var.bigtable_cell_encoding}"
   }
   provisioner "local-exec" {
     when = destroy
@@ -78,6 +78,12 @@ variable "delta_columns" {
     "type": "STRING",
     "mode": "REQUIRED",
     "description": "Data Services-generated row operation type"
+  },
+  {
+    "name": "di_generated_ts",
+    "type": "TIMESTAMP",
+    "mode": "NULLABLE",
+    "description": "Time the change was generated, used to measure the replication lag"
   }
 EOF
 }
@@ -107,10 +113,41 @@ resource "google_bigquery_table" "session_delta" {
     type = "DAY"
     // There is no field id provided here; the delta table will be partitioned by the data inject time
   }
+  // Lets the incremental refresh of session_latest read only the recently generated records
+  clustering = ["di_generated_ts"]
 
   schema = "[${var.common_session_columns}, ${var.delta_columns}]"
 }
 
+resource "google_bigquery_table" "session_latest" {
+  dataset_id = google_bigquery_dataset.cdc_demo.dataset_id
+  table_id = "session_latest"
+
+  time_partitioning {
+    type = "DAY"
+    field = "start_ts"
+  }
+  clustering = ["session_id"]
+
+  schema = "[${var.common_session_columns}, ${var.last_update_seq_number}]"
+
+  lifecycle {
+    // Labels store the refresh watermark, they are maintained by the data generator's refresher
+    ignore_changes = [labels]
+  }
+}
+
+// Decoding of the Bigtable row keys and cells, see RowKeyStrategy and CellEncoding of the data generator
+locals {
+  session_id_expression = (var.bigtable_row_key_strategy == "binary"
+    ? "(SELECT CONCAT(SUBSTR(h, 1, 8), '-', SUBSTR(h, 9, 4), '-', SUBSTR(h, 13, 4), '-', SUBSTR(h, 17, 4), '-', SUBSTR(h, 21)) FROM UNNEST([TO_HEX(rowkey)]) h)"
+    : "REGEXP_EXTRACT(rowkey, r'[^#]+$')")
+  status_expression = (var.bigtable_cell_encoding == "binary"
+    ? "CASE main.status.cell.value WHEN b'\\x00' THEN 'NEW' WHEN b'\\x01' THEN 'ABANDONED' WHEN b'\\x02' THEN 'LOGGED_IN' WHEN b'\\x03' THEN 'LOGGED_OUT' END"
+    : "main.status.cell.value")
+  timestamp_function = var.bigtable_cell_encoding == "binary" ? "TIMESTAMP_MICROS" : "TIMESTAMP"
+}
+
 resource "google_bigquery_table" "session_source_v" {
   dataset_id = google_bigquery_dataset.cdc_demo.dataset_id
   table_id = "session_source_v"
@@ -118,11 +155,11 @@ resource "google_bigquery_table" "session_source_v" {
   view {
     use_legacy_sql = false
     query = <<EOF
-SELECT rowkey as session_id,
+SELECT ${local.session_id_expression} as session_id,
   main.customer_key.cell.value as customer_key,
-  main.status.cell.value as status,
-  TIMESTAMP(main.start_ts.cell.value) as start_ts,
-  TIMESTAMP(main.end_ts.cell.value) as end_ts
+  ${local.status_expression} as status,
+  ${local.timestamp_function}(main.start_ts.cell.value) as start_ts,
+  ${local.timestamp_function}(main.end_ts.cell.value) as end_ts
   FROM `${var.project_id}.${google_bigquery_dataset.cdc_demo.dataset_id}.source_session`
 EOF
   }
@@ -142,7 +179,7 @@ FROM (
     ROW_NUMBER() OVER (PARTITION BY session_id ORDER BY di_sequence_number DESC) AS row_num
   FROM (
     SELECT
-      * EXCEPT(di_operation_type),
+      * EXCEPT(di_operation_type, di_generated_ts),
       di_operation_type
     FROM
       `${var.project_id}.${google_bigquery_dataset.cdc_demo.dataset_id}.${google_bigquery_table.session_delta.table_id}`
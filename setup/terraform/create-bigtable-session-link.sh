@@ -18,9 +18,32 @@ set -e
 
 PROJECT_ID=$1
 BQ_DATASET=$2
+ROW_KEY_STRATEGY=${3:-string}
+CELL_ENCODING=${4:-text}
 FINAL_DEF_FILE=session-def-final.json
 
-cat session-def.json | sed s/PROJECT_ID/${PROJECT_ID}/ > ${FINAL_DEF_FILE}
+# Must match the encodings used by the data generator (see --row_key_strategy and --cell_encoding)
+if [ "${ROW_KEY_STRATEGY}" == "binary" ]; then
+  READ_ROWKEY_AS_STRING=false
+else
+  READ_ROWKEY_AS_STRING=true
+fi
+
+if [ "${CELL_ENCODING}" == "binary" ]; then
+  STATUS_TYPE=BYTES
+  TIMESTAMP_TYPE=INTEGER
+  ENCODING=BINARY
+else
+  STATUS_TYPE=STRING
+  TIMESTAMP_TYPE=STRING
+  ENCODING=TEXT
+fi
+
+cat session-def.json | sed -e s/PROJECT_ID/${PROJECT_ID}/ \
+  -e s/READ_ROWKEY_AS_STRING/${READ_ROWKEY_AS_STRING}/ \
+  -e s/STATUS_TYPE/${STATUS_TYPE}/ \
+  -e s/TIMESTAMP_TYPE/${TIMESTAMP_TYPE}/ \
+  -e s/CELL_ENCODING/${ENCODING}/ > ${FINAL_DEF_FILE}
 
 bq mk --external_table_definition=${FINAL_DEF_FILE} ${BQ_DATASET}.source_session
 
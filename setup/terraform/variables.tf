@@ -26,4 +26,16 @@ variable "bigtable_instance_id" {
 variable "bigquery_dataset_id" {
   type = string
   default = "cdc_demo"
-}
\ No newline at end of file
+}
+
+variable "bigtable_row_key_strategy" {
+  type = string
+  default = "string"
+  description = "Row key strategy of the data generator: string, hash_prefix, reversed_timestamp or binary"
+}
+
+variable "bigtable_cell_encoding" {
+  type = string
+  default = "text"
+  description = "Cell encoding of the data generator: text or binary"
+}